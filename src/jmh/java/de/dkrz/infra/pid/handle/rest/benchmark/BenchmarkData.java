@@ -0,0 +1,85 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleAuthorizationInfo;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+
+/**
+ * Realistic Handle record shapes shared by the benchmarks: a URL value, a
+ * checksum, an HS_ADMIN value and, for larger records, further URL and
+ * checksum values.
+ */
+public class BenchmarkData {
+
+	public static final String ADMIN_HANDLE = "0.NA/10876";
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Sets up an application context backed by a fresh InMemoryHSAdapter.
+	 */
+	public static ApplicationContext newInMemoryContext() {
+		return new ApplicationContext(new InMemoryHSAdapter(),
+				new HandleAuthorizationInfo(ADMIN_HANDLE, 300, null, null));
+	}
+
+	private static String typeOf(int i) {
+		switch (i % 3) {
+		case 0:
+			return "URL";
+		case 1:
+			return "CHECKSUM";
+		default:
+			return "HS_ADMIN";
+		}
+	}
+
+	private static String dataOf(int i) {
+		switch (i % 3) {
+		case 0:
+			return "http://www.dkrz.de/data/cmip5/output1/dataset-" + i
+					+ ".nc";
+		case 1:
+			return "md5:9e107d9d372bb6826bd81d3542a419d6";
+		default:
+			return ADMIN_HANDLE;
+		}
+	}
+
+	/**
+	 * @return JSON array with the given number of values
+	 */
+	public static String valuesAsJson(int count) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append("{\"idx\": ").append(i + 1).append(", \"type\": \"")
+					.append(typeOf(i)).append("\", \"data\": \"")
+					.append(dataOf(i)).append("\"}");
+		}
+		return sb.append("]").toString();
+	}
+
+	/**
+	 * @return the given number of values, built with the given adapter
+	 */
+	public static HandleValue[] values(HSAdapter hsAdapter, int count)
+			throws HandleException {
+		HandleValue[] values = new HandleValue[count];
+		for (int i = 0; i < count; i++) {
+			if (typeOf(i).equals("HS_ADMIN"))
+				values[i] = hsAdapter.createAdminValue(ADMIN_HANDLE, 300,
+						i + 1);
+			else
+				values[i] = hsAdapter.createHandleValue(i + 1, typeOf(i),
+						dataOf(i));
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,22 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import java.util.List;
+
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+import de.dkrz.infra.pid.handle.rest.resources.HandleRootResource;
+
+/**
+ * Exposes the request processing steps of HandleRootResource to the
+ * benchmarks.
+ */
+public class BenchmarkResource extends HandleRootResource {
+
+	public List<HandleReference> parse(String requestBody) throws Exception {
+		return parseJSONHandleValues(requestBody);
+	}
+
+	public boolean create(HandleReference handleref) {
+		return createSingleHandle(handleref, "", "");
+	}
+
+}
@@ -0,0 +1,77 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.handle.hdllib.HandleValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+
+/**
+ * Create and overwrite logic of HandleRootResource with 16 threads sharing
+ * one InMemoryHSAdapter: creates of distinct Handles, and overwrites spread
+ * over a small set of Handles so that writers contend for the same records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(16)
+public class ConcurrentCreateBenchmark {
+
+	private static final int HOT_HANDLES = 64;
+
+	private BenchmarkResource resource;
+	private HandleValue[] values;
+	private final AtomicLong counter = new AtomicLong();
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+	}
+
+	@Setup(Level.Iteration)
+	public void setUp() throws Exception {
+		ApplicationContext context = BenchmarkData.newInMemoryContext();
+		resource = new BenchmarkResource();
+		values = BenchmarkData.values(context.getHSAdapter(), 3);
+		for (int i = 0; i < HOT_HANDLES; i++)
+			resource.create(newRecord("10876/bench-hot-" + i));
+	}
+
+	private HandleReference newRecord(String handle) {
+		HandleReference handleref = new HandleReference(handle);
+		handleref.addValues(values);
+		return handleref;
+	}
+
+	@Benchmark
+	public boolean create() {
+		return resource.create(newRecord("10876/bench-"
+				+ counter.getAndIncrement()));
+	}
+
+	@Benchmark
+	public boolean overwrite(Cursor cursor) {
+		if (cursor.next == HOT_HANDLES)
+			cursor.next = 0;
+		return resource.create(newRecord("10876/bench-hot-" + cursor.next++));
+	}
+
+}
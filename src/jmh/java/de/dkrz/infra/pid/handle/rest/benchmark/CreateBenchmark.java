@@ -0,0 +1,83 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.handle.hdllib.HandleValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+
+/**
+ * Create and overwrite logic of HandleRootResource against the InMemoryHSAdapter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CreateBenchmark {
+
+	private static final String OVERWRITE_HANDLE = "10876/bench-overwrite";
+
+	@Param({ "1", "10", "100" })
+	public int valueCount;
+
+	private BenchmarkResource resource;
+	private HandleValue[] values;
+	private HandleValue[] overwriteValues;
+	private long counter = 0;
+
+	/*
+	 * A fresh store per iteration keeps the number of stored Handles from
+	 * growing across the whole run.
+	 */
+	@Setup(Level.Iteration)
+	public void setUp() throws Exception {
+		ApplicationContext context = BenchmarkData.newInMemoryContext();
+		resource = new BenchmarkResource();
+		values = BenchmarkData.values(context.getHSAdapter(), valueCount);
+		// clients replacing a record do not send the HS_ADMIN values again
+		List<HandleValue> nonAdmin = new ArrayList<HandleValue>();
+		for (HandleValue hv : values) {
+			if (!hv.getTypeAsString().equals("HS_ADMIN"))
+				nonAdmin.add(hv);
+		}
+		overwriteValues = nonAdmin.toArray(new HandleValue[nonAdmin.size()]);
+		resource.create(newRecord(OVERWRITE_HANDLE, values));
+	}
+
+	private static HandleReference newRecord(String handle,
+			HandleValue[] values) {
+		HandleReference handleref = new HandleReference(handle);
+		handleref.addValues(values);
+		return handleref;
+	}
+
+	@Benchmark
+	public boolean create() {
+		return resource.create(newRecord("10876/bench-" + (counter++), values));
+	}
+
+	@Benchmark
+	public boolean overwrite() {
+		return resource.create(newRecord(OVERWRITE_HANDLE, overwriteValues));
+	}
+
+}
@@ -0,0 +1,82 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dkrz.infra.pid.handle.rest.core.BlockSequence;
+import de.dkrz.infra.pid.handle.rest.core.HashidGenerator;
+import de.dkrz.infra.pid.handle.rest.core.IdentifierNameGenerator;
+import de.dkrz.infra.pid.handle.rest.core.SequentialGenerator;
+import de.dkrz.infra.pid.handle.rest.core.UUIDGenerator;
+
+/**
+ * Identifiers generated per second with 32 threads sharing one generator;
+ * the sequence-based generators persist their blocks to a temporary file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(32)
+public class GeneratorBenchmark {
+
+	@Param({ "uuid", "sequential", "hashid", "jdk-uuid" })
+	public String generatorName;
+
+	@Param({ "1000" })
+	public int blockSize;
+
+	private File stateFile;
+	private IdentifierNameGenerator generator;
+
+	@Setup
+	public void setUp() throws IOException {
+		stateFile = File.createTempFile("handle-rest-benchmark", ".seq");
+		stateFile.delete();
+		if (generatorName.equals("uuid")) {
+			generator = new UUIDGenerator();
+		} else if (generatorName.equals("sequential")) {
+			generator = new SequentialGenerator(new BlockSequence(stateFile,
+					blockSize), "");
+		} else if (generatorName.equals("hashid")) {
+			generator = new HashidGenerator(new BlockSequence(stateFile,
+					blockSize), HashidGenerator.DEFAULT_KEY, "");
+		} else {
+			// baseline: shared SecureRandom
+			generator = new IdentifierNameGenerator() {
+				public String generateName(String prefix) {
+					return prefix + "/" + UUID.randomUUID().toString();
+				}
+			};
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		stateFile.delete();
+	}
+
+	@Benchmark
+	public String generateName() {
+		return generator.generateName("10876");
+	}
+
+}
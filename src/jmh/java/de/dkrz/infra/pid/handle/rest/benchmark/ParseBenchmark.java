@@ -0,0 +1,79 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleRecordReader;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+
+/**
+ * Parsing of JSON request bodies into Handle records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({ "1", "10", "100" })
+	public int valueCount;
+
+	private String arrayBody;
+	private String objectBody;
+	private BenchmarkResource resource;
+	private ApplicationContext context;
+	private JsonFactory jsonFactory = new JsonFactory();
+
+	@Setup
+	public void setUp() {
+		context = BenchmarkData.newInMemoryContext();
+		resource = new BenchmarkResource();
+		arrayBody = BenchmarkData.valuesAsJson(valueCount);
+		// 100 records of the same shape in object-based format
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < 100; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append("\"10876/bench-").append(i).append("\": ")
+					.append(arrayBody);
+		}
+		objectBody = sb.append("}").toString();
+	}
+
+	@Benchmark
+	public Object parseJSONHandleValues() throws Exception {
+		return resource.parse(arrayBody);
+	}
+
+	/**
+	 * Object-based body with 100 records; throughput is in requests.
+	 */
+	@Benchmark
+	public int readObjectBasedRecords() throws Exception {
+		HandleRecordReader reader = new HandleRecordReader(
+				jsonFactory.createParser(objectBody), context.getHSAdapter());
+		int values = 0;
+		HandleReference handleref;
+		while ((handleref = reader.next()) != null) {
+			values += handleref.getValues().size();
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,68 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import net.handle.hdllib.HandleValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+import de.dkrz.infra.pid.handle.rest.core.HandleValueWrapper;
+
+/**
+ * Building a Handle record value by value and handing it to the HSAdapter as
+ * an array: HandleReference against the synchronized Vector and the
+ * element-wise copy it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecordBenchmark {
+
+	@Param({ "1", "10", "100" })
+	public int valueCount;
+
+	private HandleValue[] values;
+
+	@Setup
+	public void setUp() throws Exception {
+		ApplicationContext context = BenchmarkData.newInMemoryContext();
+		values = BenchmarkData.values(context.getHSAdapter(), valueCount);
+	}
+
+	@Benchmark
+	public HandleValue[] handleReference() {
+		HandleReference handleref = new HandleReference("10876/bench");
+		for (HandleValue hv : values)
+			handleref.addValue(hv);
+		return handleref.getHandleValues();
+	}
+
+	@Benchmark
+	public HandleValue[] vector() {
+		Vector<HandleValueWrapper> hvNew = new Vector<HandleValueWrapper>();
+		for (HandleValue hv : values)
+			hvNew.add(new HandleValueWrapper(hv));
+		HandleValue[] handlevalues = new HandleValue[hvNew.size()];
+		for (int i = 0; i < hvNew.size(); i++) {
+			handlevalues[i] = hvNew.get(i).getHandleValue();
+		}
+		return handlevalues;
+	}
+
+}
@@ -0,0 +1,149 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import net.handle.api.HSAdapter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jersey.api.core.PackagesResourceConfig;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseWriter;
+import com.sun.jersey.spi.container.WebApplication;
+import com.sun.jersey.spi.container.WebApplicationFactory;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.resources.MetricsFilterFactory;
+
+/**
+ * Redirects per second with 8 threads against the InMemoryHSAdapter, spread over
+ * a set of Handles: answered from the redirect cache, and resolved every time
+ * by dropping the cached target before each call. Requests go through an
+ * in-process Jersey application configured as in web.xml, so routing, the
+ * metrics filters and the response are part of the cost; only the HTTP
+ * connector is left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+public class RedirectBenchmark {
+
+	private static final URI BASE_URI = URI.create("http://localhost/");
+
+	private static final String FILTERS = MetricsFilterFactory.class
+			.getName();
+
+	@Param({ "10000" })
+	public int handleCount;
+
+	private ApplicationContext context;
+	private WebApplication application;
+	private String[] suffixes;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+	}
+
+	/**
+	 * Keeps the status and throws the body away.
+	 */
+	private static class StatusWriter implements ContainerResponseWriter {
+
+		int status;
+
+		public OutputStream writeStatusAndHeaders(long contentLength,
+				ContainerResponse response) throws IOException {
+			status = response.getStatus();
+			return new ByteArrayOutputStream();
+		}
+
+		public void finish() throws IOException {
+		}
+
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		context = BenchmarkData.newInMemoryContext();
+		HSAdapter hsAdapter = context.getHSAdapter();
+		suffixes = new String[handleCount];
+		for (int i = 0; i < handleCount; i++) {
+			suffixes[i] = "bench-" + i;
+			hsAdapter.createHandle("10876/" + suffixes[i],
+					BenchmarkData.values(hsAdapter, 3));
+		}
+		ResourceConfig config = new PackagesResourceConfig(
+				"de.dkrz.infra.pid.handle.rest.resources");
+		config.getProperties().put(
+				ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES, FILTERS);
+		config.getProperties().put(
+				ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS, FILTERS);
+		config.getProperties().put(
+				ResourceConfig.PROPERTY_CONTAINER_RESPONSE_FILTERS, FILTERS);
+		application = WebApplicationFactory.createWebApplication();
+		application.initiate(config);
+		int status = redirect(suffixes[0]);
+		if (status != 302)
+			throw new IllegalStateException("Redirect answered with "
+					+ status);
+	}
+
+	@TearDown
+	public void tearDown() {
+		application.destroy();
+		context.shutdown();
+	}
+
+	private String nextSuffix(Cursor cursor) {
+		if (cursor.next == suffixes.length)
+			cursor.next = 0;
+		return suffixes[cursor.next++];
+	}
+
+	private int redirect(String suffix) throws IOException {
+		ContainerRequest request = new ContainerRequest(application, "GET",
+				BASE_URI, BASE_URI.resolve("redirect/10876/" + suffix),
+				new InBoundHeaders(), new ByteArrayInputStream(new byte[0]));
+		StatusWriter writer = new StatusWriter();
+		application.handleRequest(request, writer);
+		return writer.status;
+	}
+
+	@Benchmark
+	public int cached(Cursor cursor) throws Exception {
+		return redirect(nextSuffix(cursor));
+	}
+
+	@Benchmark
+	public int uncached(Cursor cursor) throws Exception {
+		String suffix = nextSuffix(cursor);
+		context.getRedirectCache().invalidated("10876/" + suffix);
+		return redirect(suffix);
+	}
+
+}
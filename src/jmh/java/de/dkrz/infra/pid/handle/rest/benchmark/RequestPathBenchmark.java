@@ -0,0 +1,37 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+
+/**
+ * Analysis of request path segments into Handle references.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RequestPathBenchmark {
+
+	@Param({ "/10876/abcdef-0123-4567", "/1:10876/abcdef-0123-4567" })
+	public String pathSegment;
+
+	@Benchmark
+	public HandleReference fromRequestPath() {
+		return HandleReference.fromRequestPath(pathSegment, true);
+	}
+
+}
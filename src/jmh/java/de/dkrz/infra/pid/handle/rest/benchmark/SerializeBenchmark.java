@@ -0,0 +1,93 @@
+package de.dkrz.infra.pid.handle.rest.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+
+import org.codehaus.jackson.jaxrs.JacksonJaxbJsonProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jersey.core.header.OutBoundHeaders;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+import de.dkrz.infra.pid.handle.rest.resources.HandleReferenceWriter;
+
+/**
+ * Serialization of GET responses: the dedicated streaming writer against the
+ * generic POJO mapping (Jackson with JAXB annotations) it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerializeBenchmark {
+
+	@Param({ "1", "10", "100" })
+	public int valueCount;
+
+	private HandleReference handleref;
+	private HandleReferenceWriter streamingWriter = new HandleReferenceWriter();
+	private JacksonJaxbJsonProvider pojoMapping = new JacksonJaxbJsonProvider();
+	private OutBoundHeaders headers = new OutBoundHeaders();
+	private Annotation[] annotations = new Annotation[0];
+	private CountingOutputStream out = new CountingOutputStream();
+
+	@Setup
+	public void setUp() throws Exception {
+		ApplicationContext context = BenchmarkData.newInMemoryContext();
+		handleref = new HandleReference("10876/abcdef-0123-4567");
+		handleref.addValues(BenchmarkData.values(context.getHSAdapter(),
+				valueCount));
+	}
+
+	@Benchmark
+	public long streamingWriter() throws IOException {
+		streamingWriter.writeTo(handleref, HandleReference.class,
+				HandleReference.class, annotations,
+				MediaType.APPLICATION_JSON_TYPE, headers, out);
+		return out.count;
+	}
+
+	@Benchmark
+	public long pojoMapping() throws IOException {
+		pojoMapping.writeTo(handleref, HandleReference.class,
+				HandleReference.class, annotations,
+				MediaType.APPLICATION_JSON_TYPE, headers, out);
+		return out.count;
+	}
+
+	/**
+	 * Discards all output, but keeps a byte count so the writes cannot be
+	 * optimised away.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+}
@@ -3,8 +3,9 @@ package de.dkrz.infra.pid.handle.rest;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Vector;
+import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -185,17 +186,17 @@ public class HandleSystemEndpointServlet extends HttpServlet {
 	}
 
 	/**
-	 * Parses the JSON input from the given Reader into a vector of HandleValue
+	 * Parses the JSON input from the given Reader into a list of HandleValue
 	 * instances.
 	 * 
 	 * @param reader
-	 * @return Vectory<HandleValue> containing the parsed data
+	 * @return List<HandleValue> containing the parsed data
 	 * @throws IOException
 	 * @throws JsonParseException
 	 */
-	protected Vector<HandleValue> parseJSONHandleValues(Reader reader)
+	protected List<HandleValue> parseJSONHandleValues(Reader reader)
 			throws JsonParseException, IOException {
-		Vector<HandleValue> hvNew = new Vector<HandleValue>();
+		List<HandleValue> hvNew = new ArrayList<HandleValue>();
 		/*
 		 * The method will replace all current values on the handle with the
 		 * given values (JSON encoded) plus an admin handle value
@@ -313,10 +314,10 @@ public class HandleSystemEndpointServlet extends HttpServlet {
 		}
 		try {
 			logger.debug("Processing PUT request for Handle " + handleref);
-			Vector<HandleValue> hvNew;
+			List<HandleValue> hvNew;
 			if (req.getContentLength() <= 0) {
 				// empty content - just create Handle with admin value
-				hvNew = new Vector<HandleValue>();
+				hvNew = new ArrayList<HandleValue>(1);
 			} else {
 				hvNew = parseJSONHandleValues(req.getReader());
 			}
@@ -440,7 +441,7 @@ public class HandleSystemEndpointServlet extends HttpServlet {
 				return;
 			}
 			req.getReader().mark(4096);
-			Vector<HandleValue> hvNew = parseJSONHandleValues(req.getReader());
+			List<HandleValue> hvNew = parseJSONHandleValues(req.getReader());
 			// get old handle values
 			HandleValue[] hvOrig = null;
 			try {
@@ -458,9 +459,9 @@ public class HandleSystemEndpointServlet extends HttpServlet {
 			 * Go through hvNew and determine index values to delete, add and
 			 * update.
 			 */
-			Vector<HandleValue> hvDelete = new Vector<HandleValue>();
-			Vector<HandleValue> hvAdd = new Vector<HandleValue>();
-			Vector<HandleValue> hvUpdate = new Vector<HandleValue>();
+			List<HandleValue> hvDelete = new ArrayList<HandleValue>(hvNew.size());
+			List<HandleValue> hvAdd = new ArrayList<HandleValue>(hvNew.size());
+			List<HandleValue> hvUpdate = new ArrayList<HandleValue>(hvNew.size());
 			for (HandleValue hv : hvNew) {
 				int index = hv.getIndex();
 				// check if original value exists
@@ -569,7 +570,8 @@ public class HandleSystemEndpointServlet extends HttpServlet {
 				/* Security check: prevent deletion of last HS_ADMIN value */
 				int numHSAdminLost = 0;
 				int numHSAdminPresent = 0;
-				Vector<HandleValue> valuesToDelete = new Vector<HandleValue>();
+				List<HandleValue> valuesToDelete = new ArrayList<HandleValue>(
+						handleref.numIndexes());
 				for (int idx : handleref.getIndexes()) {
 					// find corresponding original handle value
 					HandleValue hv = null;
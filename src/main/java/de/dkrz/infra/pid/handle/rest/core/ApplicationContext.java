@@ -2,6 +2,12 @@ package de.dkrz.infra.pid.handle.rest.core;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -10,6 +16,8 @@ import org.xml.sax.SAXException;
 
 import net.handle.api.HSAdapter;
 import net.handle.api.HSAdapterFactory;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
 
 /**
  * Singleton context object.
@@ -19,33 +27,252 @@ import net.handle.api.HSAdapterFactory;
  */
 public class ApplicationContext {
 
+	/**
+	 * Default number of Handles written concurrently by bulk operations.
+	 */
+	public static final int DEFAULT_BULK_CONCURRENCY = 8;
+
+	/**
+	 * Index of the HS_ADMIN value added to newly created Handles.
+	 */
+	public static final int DEFAULT_ADMIN_VALUE_INDEX = 100;
+
+	/**
+	 * Default number of threads running Handle System calls if a backend
+	 * timeout is configured.
+	 */
+	public static final int DEFAULT_BACKEND_THREADS = 64;
+
 	private static ApplicationContext instance;
 
 	private HSAdapter hsAdapter;
 	private HandleAuthorizationInfo authInfo;
+	private ResolutionCache resolutionCache;
+	private RedirectCache redirectCache;
+	private HandleNameIndex nameIndex;
+	private CoalescingHSAdapter coalescingAdapter;
+	private int bulkConcurrency;
+	private ExecutorService bulkExecutor;
+	private BatchHSAdapter batchAdapter;
+	private HSAdapterPool adapterPool;
+	private TimeLimitedHSAdapter timeLimitedAdapter;
+	private ExecutorService backendExecutor;
+	private boolean optimisticCreate = true;
+	private CreateStatistics createStatistics = new CreateStatistics();
+	private MetricsRegistry metrics = new MetricsRegistry();
+	private RegistrationJournal journal;
+	private File importDir;
+	private ConcurrentMap<String, HandleImport> imports = new ConcurrentHashMap<String, HandleImport>();
+	private JournalDrainer journalDrainer;
+	private ConcurrentMap<String, HandleValue> adminValueTemplates = new ConcurrentHashMap<String, HandleValue>();
+	private Map<String, IdentifierNameGenerator> generators = new HashMap<String, IdentifierNameGenerator>();
+	private String defaultGenerator = "uuid";
 	
 	private static final Logger logger = Logger.getLogger(ApplicationContext.class);
 
 	private ApplicationContext() throws Exception {
-		instance = this;
+		try {
+			configure();
+		} catch (Exception exc) {
+			// release whatever was started before the failure
+			shutdown();
+			throw exc;
+		}
+	}
+
+	/**
+	 * Sets up the context as configured by the system properties.
+	 */
+	private void configure() throws Exception {
 		this.authInfo = HandleAuthorizationInfo.createFromFile(new File(
 				new File(System.getenv("HOME")), "handleservletconfig.xml"));
-		this.hsAdapter = HSAdapterFactory.newInstance(
-				authInfo.getAdminHandle(), authInfo.getKeyIndex(),
-				authInfo.getPrivateKey(), authInfo.getCipher());
+		this.resolutionCache = new ResolutionCache(Integer.getInteger(
+				"handle-rest.cache.maxEntries",
+				ResolutionCache.DEFAULT_MAX_ENTRIES), Integer.getInteger(
+				"handle-rest.cache.maxTTL", ResolutionCache.DEFAULT_MAX_TTL));
+		this.redirectCache = new RedirectCache(Integer.getInteger(
+				"handle-rest.redirect.maxEntries",
+				RedirectCache.DEFAULT_MAX_ENTRIES), Integer.getInteger(
+				"handle-rest.redirect.maxTTL", RedirectCache.DEFAULT_MAX_TTL));
+		resolutionCache.addInvalidationListener(redirectCache);
+		this.nameIndex = new HandleNameIndex(new File(System.getProperty(
+				"handle-rest.index.file", new File(new File(System
+						.getenv("HOME")), "handle-rest-index.log").getPath())));
+		HSAdapter backend;
+		if ("memory".equals(System.getProperty("handle-rest.backend"))) {
+			// stand-in for a Handle server, e.g. for load tests
+			backend = new InMemoryHSAdapter(Long.getLong(
+					"handle-rest.backend.latencyMillis", 0),
+					Double.parseDouble(System.getProperty(
+							"handle-rest.backend.errorRate", "0")));
+		} else {
+			this.adapterPool = new HSAdapterPool(new HSAdapterPool.Factory() {
+				public HSAdapter create() throws HandleException {
+					return HSAdapterFactory.newInstance(
+							authInfo.getAdminHandle(), authInfo.getKeyIndex(),
+							authInfo.getPrivateKey(), authInfo.getCipher());
+				}
+			}, Integer.getInteger("handle-rest.pool.minSize",
+					HSAdapterPool.DEFAULT_MIN_SIZE), Integer.getInteger(
+					"handle-rest.pool.maxSize", HSAdapterPool.DEFAULT_MAX_SIZE),
+					Integer.getInteger("handle-rest.pool.idleTimeout",
+							HSAdapterPool.DEFAULT_IDLE_TIMEOUT),
+					Integer.getInteger("handle-rest.pool.borrowTimeout",
+							HSAdapterPool.DEFAULT_BORROW_TIMEOUT),
+					authInfo.getAdminHandle(), authInfo.getKeyIndex());
+			backend = new PooledHSAdapter(adapterPool);
+		}
+		int backendTimeout = Integer.getInteger(
+				"handle-rest.backend.timeoutMillis", 0);
+		if (backendTimeout > 0) {
+			this.backendExecutor = TimeLimitedHSAdapter.newExecutor(Integer
+					.getInteger("handle-rest.backend.threads",
+							DEFAULT_BACKEND_THREADS));
+			this.timeLimitedAdapter = new TimeLimitedHSAdapter(backend,
+					backendExecutor, backendTimeout);
+			backend = timeLimitedAdapter;
+		}
+		initAdapters(backend);
+		initBulkExecutor(Integer.getInteger("handle-rest.bulk.concurrency",
+				DEFAULT_BULK_CONCURRENCY));
+		this.optimisticCreate = Boolean.parseBoolean(System.getProperty(
+				"handle-rest.create.optimistic", "true"));
+		File stateDir = new File(System.getProperty(
+				"handle-rest.generator.stateDir", System.getenv("HOME")));
+		int blockSize = Integer.getInteger("handle-rest.generator.blockSize",
+				BlockSequence.DEFAULT_BLOCK_SIZE);
+		initGenerators(new BlockSequence(new File(stateDir,
+				"handle-rest-sequential.seq"), blockSize), new BlockSequence(
+				new File(stateDir, "handle-rest-hashid.seq"), blockSize),
+				Long.getLong("handle-rest.generator.hashidKey",
+						HashidGenerator.DEFAULT_KEY));
+		this.defaultGenerator = System.getProperty(
+				"handle-rest.generator.default", defaultGenerator);
+		if (!generators.containsKey(defaultGenerator))
+			throw new IllegalArgumentException("Unknown default generator: "
+					+ defaultGenerator);
+		this.importDir = new File(System.getProperty("handle-rest.import.dir",
+				new File(System.getProperty("user.home"), "handle-rest-imports")
+						.getPath()));
+		String journalDir = System.getProperty("handle-rest.journal.dir");
+		if (journalDir != null)
+			openJournal(new File(journalDir), Integer.getInteger(
+					"handle-rest.journal.segmentSize",
+					RegistrationJournal.DEFAULT_SEGMENT_SIZE));
 	}
 	
 	public ApplicationContext(HSAdapter hsAdapter, HandleAuthorizationInfo authInfo) {
-		instance = this;
-		this.hsAdapter = hsAdapter;
+		this.resolutionCache = new ResolutionCache();
+		this.redirectCache = new RedirectCache();
+		resolutionCache.addInvalidationListener(redirectCache);
+		this.nameIndex = new HandleNameIndex();
+		initAdapters(hsAdapter);
+		initBulkExecutor(DEFAULT_BULK_CONCURRENCY);
+		initGenerators(new BlockSequence(BlockSequence.DEFAULT_BLOCK_SIZE),
+				new BlockSequence(BlockSequence.DEFAULT_BLOCK_SIZE),
+				HashidGenerator.DEFAULT_KEY);
 		this.authInfo = authInfo;
-		
+		this.importDir = new File(System.getProperty("java.io.tmpdir"),
+				"handle-rest-imports-" + System.nanoTime());
+		instance = this;
+	}
+
+	/**
+	 * Stacks the decorators on top of the backend adapter: resolutions are
+	 * answered from the cache first, cache misses for the same Handle are
+	 * coalesced into a single backend call. In production, the backend is a
+	 * pool of HSAdapter instances, optionally called with a timeout. Created
+	 * and deleted Handles are recorded in the name index. Backend calls are
+	 * timed below the cache, so cache hits do not show up as calls.
+	 */
+	private void initAdapters(HSAdapter backend) {
+		this.coalescingAdapter = new CoalescingHSAdapter(
+				new InstrumentedHSAdapter(backend, metrics));
+		this.hsAdapter = new IndexingHSAdapter(new CachingHSAdapter(
+				coalescingAdapter, resolutionCache), nameIndex);
+	}
+
+	private void initBulkExecutor(int concurrency) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException(
+					"Bulk concurrency must be positive!");
+		this.bulkConcurrency = concurrency;
+		this.bulkExecutor = Executors.newFixedThreadPool(concurrency,
+				new NamedThreadFactory("handle-rest-bulk"));
+		// bulk resolutions and exports would evict the working set of the
+		// resolution cache, so they resolve past it
+		this.batchAdapter = new PipeliningBatchHSAdapter(coalescingAdapter,
+				bulkExecutor, 2 * concurrency);
+	}
+
+	private void initGenerators(BlockSequence sequential, BlockSequence hashid,
+			long hashidKey) {
+		String node = System.getProperty("handle-rest.generator.node", "");
+		generators.put("uuid", new UUIDGenerator());
+		generators.put("sequential", new SequentialGenerator(sequential, node));
+		generators.put("hashid", new HashidGenerator(hashid, hashidKey, node));
+	}
+
+	/**
+	 * Enables asynchronous registration: opens the journal in the given
+	 * directory and starts registering the records it holds.
+	 */
+	public void openJournal(File directory, int segmentSize)
+			throws IOException {
+		this.journal = new RegistrationJournal(directory, segmentSize);
+		this.journalDrainer = new JournalDrainer(journal, hsAdapter, this,
+				Integer.getInteger("handle-rest.journal.batchSize",
+						JournalDrainer.DEFAULT_BATCH_SIZE), bulkConcurrency);
+		journalDrainer.start();
+	}
+
+	/**
+	 * Stops the background work of this context and releases what it holds:
+	 * the journal drainer and the lock on the journal directory, the worker
+	 * pools, the backend adapters and the name index log. Must be called
+	 * before a new context opens the same journal, e.g. on redeployment.
+	 */
+	public void shutdown() {
+		if (instance == this)
+			instance = null;
+		if (journalDrainer != null)
+			journalDrainer.stop();
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException exc) {
+				logger.error("Cannot close registration journal", exc);
+			}
+		}
+		if (bulkExecutor != null)
+			bulkExecutor.shutdownNow();
+		if (backendExecutor != null)
+			backendExecutor.shutdownNow();
+		if (adapterPool != null)
+			adapterPool.shutdown();
+		if (nameIndex != null) {
+			try {
+				nameIndex.close();
+			} catch (IOException exc) {
+				logger.error("Cannot close name index", exc);
+			}
+		}
+	}
+
+	/**
+	 * Shuts down the current context, if there is one.
+	 */
+	public static void shutdownInstance() {
+		ApplicationContext context = instance;
+		if (context != null)
+			context.shutdown();
 	}
 
 	public static ApplicationContext getInstance() {
 		if (ApplicationContext.instance == null)
 			try {
-				return new ApplicationContext();
+				// published only once it is completely set up
+				instance = new ApplicationContext();
 			} catch (Exception exc) {
 				logger.error(exc.getMessage(), exc);
 			}
@@ -56,12 +283,179 @@ public class ApplicationContext {
 		return hsAdapter;
 	}
 
+	public ResolutionCache getResolutionCache() {
+		return resolutionCache;
+	}
+
+	/**
+	 * @return the cache of redirect targets, which follows the invalidations
+	 *         of the resolution cache
+	 */
+	public RedirectCache getRedirectCache() {
+		return redirectCache;
+	}
+
+	/**
+	 * @return the index of all Handles created through this service
+	 */
+	public HandleNameIndex getNameIndex() {
+		return nameIndex;
+	}
+
+	/**
+	 * @return the pool of backend adapters, or null if the context was built
+	 *         around a single given adapter
+	 */
+	public HSAdapterPool getAdapterPool() {
+		return adapterPool;
+	}
+
+	/**
+	 * @return the adapter enforcing the backend timeout, or null if no
+	 *         timeout is configured
+	 */
+	public TimeLimitedHSAdapter getTimeLimitedAdapter() {
+		return timeLimitedAdapter;
+	}
+
+	public CoalescingHSAdapter getCoalescingAdapter() {
+		return coalescingAdapter;
+	}
+
+	/**
+	 * @return the worker pool shared by all bulk operations; its size bounds
+	 *         the number of concurrent Handle System writes they issue
+	 */
+	public ExecutorService getBulkExecutor() {
+		return bulkExecutor;
+	}
+
+	public int getBulkConcurrency() {
+		return bulkConcurrency;
+	}
+
+	/**
+	 * @return batch operations on top of {@link #getCoalescingAdapter()},
+	 *         run on the bulk worker pool; they bypass the resolution cache
+	 *         and the name index, so writes must not go through them
+	 */
+	public BatchHSAdapter getBatchAdapter() {
+		return batchAdapter;
+	}
+
+	/**
+	 * @return true if PUT and POST try to create a Handle right away and only
+	 *         fall back to overwriting it if it already exists, instead of
+	 *         resolving it first
+	 */
+	public boolean isOptimisticCreate() {
+		return optimisticCreate;
+	}
+
+	public void setOptimisticCreate(boolean optimisticCreate) {
+		this.optimisticCreate = optimisticCreate;
+	}
+
+	/**
+	 * Returns an HS_ADMIN value granting the given admin Handle full
+	 * permissions. The value is built once per admin Handle, key index and
+	 * value index and then copied with a fresh timestamp, so callers may
+	 * modify the returned value.
+	 */
+	public HandleValue getAdminValue(String adminHandle, int keyIndex,
+			int index) throws HandleException {
+		String key = adminHandle + '\u0000' + keyIndex + '\u0000' + index;
+		HandleValue template = adminValueTemplates.get(key);
+		if (template == null) {
+			HandleValue newTemplate = hsAdapter.createAdminValue(adminHandle,
+					keyIndex, index);
+			template = adminValueTemplates.putIfAbsent(key, newTemplate);
+			if (template == null)
+				template = newTemplate;
+		}
+		HandleValue hvAdmin = template.duplicate();
+		hvAdmin.setTimestamp((int) (System.currentTimeMillis() / 1000));
+		return hvAdmin;
+	}
+
+	/**
+	 * Adds an admin value for the configured admin Handle to the given values,
+	 * unless they contain an HS_ADMIN value already.
+	 * 
+	 * @return the given array or a copy with the admin value appended
+	 */
+	public HandleValue[] withAdminValue(HandleValue[] values)
+			throws HandleException {
+		for (HandleValue hv : values) {
+			if (hv.getTypeAsString().equals("HS_ADMIN"))
+				return values;
+		}
+		HandleValue[] result = new HandleValue[values.length + 1];
+		System.arraycopy(values, 0, result, 0, values.length);
+		result[values.length] = getAdminValue(authInfo.getAdminHandle(),
+				authInfo.getKeyIndex(), DEFAULT_ADMIN_VALUE_INDEX);
+		return result;
+	}
+
+	/**
+	 * @return the journal of asynchronous registrations, or null if
+	 *         asynchronous registration is not enabled
+	 */
+	public RegistrationJournal getJournal() {
+		return journal;
+	}
+
+	public JournalDrainer getJournalDrainer() {
+		return journalDrainer;
+	}
+
+	/**
+	 * Returns the import with the given name.
+	 * 
+	 * @param create
+	 *            if false, null is returned for imports that never ran
+	 */
+	public HandleImport getImport(String id, boolean create)
+			throws IOException {
+		HandleImport handleImport = imports.get(id);
+		if (handleImport != null)
+			return handleImport;
+		if (!importDir.isDirectory() && !importDir.mkdirs())
+			throw new IOException("Cannot create import directory "
+					+ importDir);
+		handleImport = new HandleImport(importDir, id, hsAdapter, this,
+				bulkExecutor, Integer.getInteger("handle-rest.import.batchSize",
+						HandleImport.DEFAULT_BATCH_SIZE));
+		if (!create && !handleImport.hasState())
+			return null;
+		HandleImport existing = imports.putIfAbsent(id, handleImport);
+		return (existing != null) ? existing : handleImport;
+	}
+
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	public CreateStatistics getCreateStatistics() {
+		return createStatistics;
+	}
+
 	public HandleAuthorizationInfo getAuthInfo() {
 		return authInfo;
 	}
 
+	/**
+	 * @return the generator configured with handle-rest.generator.default
+	 *         ("uuid" unless set)
+	 */
 	public IdentifierNameGenerator getDefaultIdentifierNameGenerator() {
-		// TODO: original API has config file option for this
-		return new UUIDGenerator();
+		return generators.get(defaultGenerator);
+	}
+
+	/**
+	 * @return the generator registered under the given name, or null
+	 */
+	public IdentifierNameGenerator getIdentifierNameGenerator(String name) {
+		return generators.get(name);
 	}
 }
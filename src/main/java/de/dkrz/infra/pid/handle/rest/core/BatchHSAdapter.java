@@ -0,0 +1,52 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.List;
+
+/**
+ * Operations on many Handles at once, complementing the single-Handle
+ * operations of {@link net.handle.api.HSAdapter}.
+ *
+ * Each operation returns one result per Handle, in the order of the given
+ * Handles; write results are also tagged with their position. Failures of
+ * single Handles are reported in their results and do not affect the others.
+ */
+public interface BatchHSAdapter {
+
+	/**
+	 * Resolves the given Handles, selecting the values of each by the types
+	 * and indexes set on its reference as
+	 * {@link net.handle.api.HSAdapter#resolveHandle(String, String[], int[])}.
+	 */
+	public List<HandleResolveResult> resolveAll(List<HandleReference> handles);
+
+	/**
+	 * Creates a Handle for each of the given records. Existing Handles are
+	 * not touched and reported as failed with status 409.
+	 *
+	 * Like {@link net.handle.api.HSAdapter#createHandle(String,
+	 * net.handle.hdllib.HandleValue[])}, the Handles get exactly the given
+	 * values: callers must include an HS_ADMIN value, e.g. with
+	 * {@link ApplicationContext#withAdminValue}, or the Handles cannot be
+	 * administered.
+	 *
+	 * @param records
+	 *            Handle names with their values
+	 */
+	public List<HandleWriteResult> createAll(List<HandleReference> records);
+
+	/**
+	 * Replaces the values at the indexes given in each of the records.
+	 * Missing Handles are reported as failed with status 404.
+	 *
+	 * @param records
+	 *            Handle names with their values
+	 */
+	public List<HandleWriteResult> updateAll(List<HandleReference> records);
+
+	/**
+	 * Deletes the given Handles. Missing Handles are reported as failed with
+	 * status 404.
+	 */
+	public List<HandleWriteResult> deleteAll(List<String> handles);
+
+}
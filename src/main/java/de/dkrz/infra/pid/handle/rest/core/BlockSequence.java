@@ -0,0 +1,96 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of unique, increasing numbers that survives restarts.
+ * 
+ * Numbers are handed out from blocks of a fixed size. Only the upper end of
+ * the current block is written to the state file (and synced) whenever a new
+ * block is reserved; after a restart, numbering continues at the end of the
+ * last reserved block, so numbers are never reused. Numbers left over in the
+ * block that was active at shutdown are skipped.
+ */
+public class BlockSequence {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+	private final File stateFile;
+	private final int blockSize;
+
+	private final AtomicLong next;
+	private volatile long blockEnd;
+
+	/**
+	 * Creates a sequence held in memory only, starting at 0.
+	 */
+	public BlockSequence(int blockSize) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("Block size must be positive!");
+		this.stateFile = null;
+		this.blockSize = blockSize;
+		this.next = new AtomicLong();
+		this.blockEnd = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Creates a sequence persisted to the given state file, continuing after
+	 * the last block reserved in it.
+	 */
+	public BlockSequence(File stateFile, int blockSize) throws IOException {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("Block size must be positive!");
+		this.stateFile = stateFile;
+		this.blockSize = blockSize;
+		long start = 0;
+		if (stateFile.exists() && (stateFile.length() >= 8)) {
+			DataInputStream in = new DataInputStream(new FileInputStream(
+					stateFile));
+			try {
+				start = in.readLong();
+			} finally {
+				in.close();
+			}
+		}
+		this.next = new AtomicLong(start);
+		this.blockEnd = start;
+	}
+
+	/**
+	 * @return the next number of the sequence
+	 * @throws IllegalStateException
+	 *             if a new block cannot be reserved
+	 */
+	public long next() {
+		long n = next.getAndIncrement();
+		if (n >= blockEnd)
+			reserve(n);
+		return n;
+	}
+
+	private synchronized void reserve(long n) {
+		while (n >= blockEnd) {
+			long end = blockEnd + blockSize;
+			try {
+				RandomAccessFile file = new RandomAccessFile(stateFile, "rw");
+				try {
+					file.seek(0);
+					file.writeLong(end);
+					file.getFD().sync();
+				} finally {
+					file.close();
+				}
+			} catch (IOException exc) {
+				throw new IllegalStateException(
+						"Cannot reserve identifier block in " + stateFile, exc);
+			}
+			blockEnd = end;
+		}
+	}
+
+}
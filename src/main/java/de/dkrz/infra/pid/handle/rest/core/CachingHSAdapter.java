@@ -0,0 +1,89 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+/**
+ * HSAdapter decorator that answers resolution requests from a
+ * {@link ResolutionCache}. Every write operation invalidates the cached
+ * entries of the affected Handle, whether it succeeds or not, so that
+ * subsequent resolutions never serve a record older than the last write
+ * issued through this adapter.
+ */
+public class CachingHSAdapter extends ForwardingHSAdapter {
+
+	private final ResolutionCache cache;
+
+	public CachingHSAdapter(HSAdapter delegate, ResolutionCache cache) {
+		super(delegate);
+		this.cache = cache;
+	}
+
+	public ResolutionCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public HandleValue[] resolveHandle(String handle, String[] types,
+			int[] indexes) throws HandleException {
+		String selection = ResolutionCache.selectionKey(types, indexes);
+		HandleValue[] values = cache.get(handle, selection);
+		if (values != null)
+			return values;
+		long stamp = cache.getStamp(handle);
+		values = delegate.resolveHandle(handle, types, indexes);
+		cache.put(handle, selection, values, stamp);
+		return values;
+	}
+
+	@Override
+	public void createHandle(String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			delegate.createHandle(handle, values);
+		} finally {
+			cache.invalidate(handle);
+		}
+	}
+
+	@Override
+	public void addHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			delegate.addHandleValues(handle, values);
+		} finally {
+			cache.invalidate(handle);
+		}
+	}
+
+	@Override
+	public void updateHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			delegate.updateHandleValues(handle, values);
+		} finally {
+			cache.invalidate(handle);
+		}
+	}
+
+	@Override
+	public void deleteHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			delegate.deleteHandleValues(handle, values);
+		} finally {
+			cache.invalidate(handle);
+		}
+	}
+
+	@Override
+	public void deleteHandle(String handle) throws HandleException {
+		try {
+			delegate.deleteHandle(handle);
+		} finally {
+			cache.invalidate(handle);
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+/**
+ * HSAdapter decorator that coalesces concurrent resolution requests
+ * ("single-flight"). While a resolution of a particular Handle and selection
+ * of types/indexes is in progress, further identical requests do not reach the
+ * wrapped adapter but wait for the outstanding call and share its result or
+ * exception.
+ *
+ * Writes to a Handle detach any in-flight resolution of it, so requests
+ * arriving after a write never join a resolution that was started before.
+ */
+public class CoalescingHSAdapter extends ForwardingHSAdapter {
+
+	private static final char KEY_SEPARATOR = '\u0000';
+
+	private final ConcurrentMap<String, FutureTask<HandleValue[]>> inFlight = new ConcurrentHashMap<String, FutureTask<HandleValue[]>>();
+
+	private final AtomicLong backendCalls = new AtomicLong();
+	private final AtomicLong coalescedCalls = new AtomicLong();
+
+	public CoalescingHSAdapter(HSAdapter delegate) {
+		super(delegate);
+	}
+
+	@Override
+	public HandleValue[] resolveHandle(final String handle,
+			final String[] types, final int[] indexes) throws HandleException {
+		String key = handle + KEY_SEPARATOR
+				+ ResolutionCache.selectionKey(types, indexes);
+		FutureTask<HandleValue[]> task = new FutureTask<HandleValue[]>(
+				new Callable<HandleValue[]>() {
+					public HandleValue[] call() throws Exception {
+						return delegate.resolveHandle(handle, types, indexes);
+					}
+				});
+		FutureTask<HandleValue[]> running = inFlight.putIfAbsent(key, task);
+		if (running == null) {
+			// this thread leads; run the backend call itself
+			backendCalls.incrementAndGet();
+			try {
+				task.run();
+			} finally {
+				inFlight.remove(key, task);
+			}
+			running = task;
+		} else {
+			coalescedCalls.incrementAndGet();
+		}
+		try {
+			// every caller gets its own copy of the values
+			return ResolutionCache.duplicate(running.get());
+		} catch (ExecutionException exc) {
+			Throwable cause = exc.getCause();
+			if (cause instanceof HandleException)
+				throw (HandleException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new HandleException(HandleException.INTERNAL_ERROR,
+					cause.toString());
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new HandleException(HandleException.INTERNAL_ERROR,
+					"Interrupted while waiting for resolution of " + handle);
+		}
+	}
+
+	/**
+	 * Detaches all in-flight resolutions of the given Handle. Callers already
+	 * waiting for them still get their result.
+	 */
+	private void detach(String handle) {
+		String keyPrefix = handle + KEY_SEPARATOR;
+		for (Iterator<String> iter = inFlight.keySet().iterator(); iter
+				.hasNext();) {
+			if (iter.next().startsWith(keyPrefix))
+				iter.remove();
+		}
+	}
+
+	@Override
+	public void createHandle(String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			delegate.createHandle(handle, values);
+		} finally {
+			detach(handle);
+		}
+	}
+
+	@Override
+	public void addHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			delegate.addHandleValues(handle, values);
+		} finally {
+			detach(handle);
+		}
+	}
+
+	@Override
+	public void updateHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			delegate.updateHandleValues(handle, values);
+		} finally {
+			detach(handle);
+		}
+	}
+
+	@Override
+	public void deleteHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			delegate.deleteHandleValues(handle, values);
+		} finally {
+			detach(handle);
+		}
+	}
+
+	@Override
+	public void deleteHandle(String handle) throws HandleException {
+		try {
+			delegate.deleteHandle(handle);
+		} finally {
+			detach(handle);
+		}
+	}
+
+	/**
+	 * @return the number of resolutions actually passed on to the wrapped
+	 *         adapter
+	 */
+	public long getBackendCalls() {
+		return backendCalls.get();
+	}
+
+	/**
+	 * @return the number of resolutions that were served by joining an
+	 *         in-flight call
+	 */
+	public long getCoalescedCalls() {
+		return coalescedCalls.get();
+	}
+
+}
@@ -0,0 +1,75 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts which path single-Handle writes take, to judge how well the
+ * optimistic create mode pays off.
+ */
+public class CreateStatistics {
+
+	private final AtomicLong optimisticCreates = new AtomicLong();
+	private final AtomicLong optimisticFallbacks = new AtomicLong();
+	private final AtomicLong checkedCreates = new AtomicLong();
+	private final AtomicLong checkedOverwrites = new AtomicLong();
+	private final AtomicLong unchangedOverwrites = new AtomicLong();
+
+	/**
+	 * Records a Handle created by a direct create attempt (one round trip).
+	 */
+	public void optimisticCreate() {
+		optimisticCreates.incrementAndGet();
+	}
+
+	/**
+	 * Records a direct create attempt that failed because the Handle existed
+	 * and fell back to overwriting it.
+	 */
+	public void optimisticFallback() {
+		optimisticFallbacks.incrementAndGet();
+	}
+
+	/**
+	 * Records a Handle created after a resolution found it missing.
+	 */
+	public void checkedCreate() {
+		checkedCreates.incrementAndGet();
+	}
+
+	/**
+	 * Records a Handle overwritten after a resolution found it existing with
+	 * different values.
+	 */
+	public void checkedOverwrite() {
+		checkedOverwrites.incrementAndGet();
+	}
+
+	/**
+	 * Records an overwrite that was skipped because the Handle already had
+	 * the new values.
+	 */
+	public void unchangedOverwrite() {
+		unchangedOverwrites.incrementAndGet();
+	}
+
+	public long getOptimisticCreates() {
+		return optimisticCreates.get();
+	}
+
+	public long getOptimisticFallbacks() {
+		return optimisticFallbacks.get();
+	}
+
+	public long getCheckedCreates() {
+		return checkedCreates.get();
+	}
+
+	public long getCheckedOverwrites() {
+		return checkedOverwrites.get();
+	}
+
+	public long getUnchangedOverwrites() {
+		return unchangedOverwrites.get();
+	}
+
+}
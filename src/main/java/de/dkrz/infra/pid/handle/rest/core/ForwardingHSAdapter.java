@@ -0,0 +1,78 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+/**
+ * Base class for HSAdapter decorators. Forwards every call unchanged to the
+ * wrapped adapter; subclasses override only the operations they are
+ * interested in.
+ */
+public abstract class ForwardingHSAdapter implements HSAdapter {
+
+	protected final HSAdapter delegate;
+
+	public ForwardingHSAdapter(HSAdapter delegate) {
+		if (delegate == null)
+			throw new IllegalArgumentException(
+					"'delegate' parameter must not be null!");
+		this.delegate = delegate;
+	}
+
+	public HSAdapter getDelegate() {
+		return delegate;
+	}
+
+	public void addHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		delegate.addHandleValues(handle, values);
+	}
+
+	public HandleValue createAdminValue(String adminHandle, int keyIndex,
+			int index) throws HandleException {
+		return delegate.createAdminValue(adminHandle, keyIndex, index);
+	}
+
+	public void createHandle(String handle, HandleValue[] values)
+			throws HandleException {
+		delegate.createHandle(handle, values);
+	}
+
+	public HandleValue createHandleValue(int index, String type, String data)
+			throws HandleException {
+		return delegate.createHandleValue(index, type, data);
+	}
+
+	public void deleteHandle(String handle) throws HandleException {
+		delegate.deleteHandle(handle);
+	}
+
+	public void deleteHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		delegate.deleteHandleValues(handle, values);
+	}
+
+	public HandleValue[] resolveHandle(String handle, String[] types,
+			int[] indexes) throws HandleException {
+		return delegate.resolveHandle(handle, types, indexes);
+	}
+
+	public void setTcpTimeout(int newTcpTimeout) {
+		delegate.setTcpTimeout(newTcpTimeout);
+	}
+
+	public int getTcpTimeout() {
+		return delegate.getTcpTimeout();
+	}
+
+	public void setUseUDP(boolean useUDP) {
+		delegate.setUseUDP(useUDP);
+	}
+
+	public void updateHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		delegate.updateHandleValues(handle, values);
+	}
+
+}
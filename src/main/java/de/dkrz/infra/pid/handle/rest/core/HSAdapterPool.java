@@ -0,0 +1,285 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of HSAdapter instances, so that concurrent requests do not serialise
+ * behind a single client object.
+ *
+ * The pool grows on demand up to a maximum size and shrinks back to its
+ * minimum size by evicting instances that have been idle for longer than the
+ * idle timeout. Instances that have been idle for a while are validated with a
+ * cheap resolution before they are handed out again; instances failing the
+ * check are discarded.
+ */
+public class HSAdapterPool {
+
+	/**
+	 * Creates new HSAdapter instances for the pool.
+	 */
+	public interface Factory {
+		public HSAdapter create() throws HandleException;
+	}
+
+	public static final int DEFAULT_MIN_SIZE = 1;
+	public static final int DEFAULT_MAX_SIZE = 16;
+	public static final int DEFAULT_IDLE_TIMEOUT = 300;
+	public static final int DEFAULT_BORROW_TIMEOUT = 30;
+
+	/**
+	 * Instances idle for longer than this (in milliseconds) are validated
+	 * before use.
+	 */
+	private static final long VALIDATION_INTERVAL = 30000;
+
+	private static final Logger logger = Logger.getLogger(HSAdapterPool.class);
+
+	private final Factory factory;
+	private final int minSize;
+	private final int maxSize;
+	private final long idleTimeoutMillis;
+	private final long borrowTimeoutMillis;
+	private final String healthCheckHandle;
+	private final int[] healthCheckIndexes;
+
+	private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<Entry>();
+	private final Semaphore permits;
+	private final ScheduledExecutorService evictor;
+
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong evicted = new AtomicLong();
+	private final AtomicLong failedHealthChecks = new AtomicLong();
+	private final AtomicLong borrowTimeouts = new AtomicLong();
+
+	private volatile int tcpTimeout = -1;
+	private volatile Boolean useUDP = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param factory
+	 *            creates the pooled instances
+	 * @param minSize
+	 *            number of instances kept even if idle
+	 * @param maxSize
+	 *            maximum number of instances
+	 * @param idleTimeout
+	 *            seconds after which idle instances beyond the minimum size are
+	 *            evicted
+	 * @param borrowTimeout
+	 *            seconds to wait for an instance if the pool is exhausted
+	 * @param healthCheckHandle
+	 *            Handle resolved to validate instances, e.g. the admin Handle
+	 * @param healthCheckIndex
+	 *            index of the value resolved to validate instances
+	 */
+	public HSAdapterPool(Factory factory, int minSize, int maxSize,
+			int idleTimeout, int borrowTimeout, String healthCheckHandle,
+			int healthCheckIndex) throws HandleException {
+		if ((minSize < 0) || (maxSize < 1) || (minSize > maxSize))
+			throw new IllegalArgumentException("Invalid pool size: min "
+					+ minSize + ", max " + maxSize);
+		this.factory = factory;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleTimeoutMillis = idleTimeout * 1000L;
+		this.borrowTimeoutMillis = borrowTimeout * 1000L;
+		this.healthCheckHandle = healthCheckHandle;
+		this.healthCheckIndexes = new int[] { healthCheckIndex };
+		this.permits = new Semaphore(maxSize, true);
+		for (int i = 0; i < minSize; i++) {
+			idle.addFirst(new Entry(createAdapter()));
+		}
+		this.evictor = Executors
+				.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+						"handle-rest-pool-evictor"));
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private HSAdapter createAdapter() throws HandleException {
+		HSAdapter adapter = factory.create();
+		if (tcpTimeout >= 0)
+			adapter.setTcpTimeout(tcpTimeout);
+		if (useUDP != null)
+			adapter.setUseUDP(useUDP);
+		size.incrementAndGet();
+		created.incrementAndGet();
+		return adapter;
+	}
+
+	/**
+	 * Takes an instance from the pool, creating one if none is idle and the
+	 * pool has not reached its maximum size. Every borrowed instance must be
+	 * given back with {@link #release(HSAdapter)}.
+	 *
+	 * @throws HandleException
+	 *             if no instance becomes available within the borrow timeout
+	 *             or a new instance cannot be created
+	 */
+	public HSAdapter borrow() throws HandleException {
+		try {
+			if (!permits.tryAcquire(borrowTimeoutMillis,
+					TimeUnit.MILLISECONDS)) {
+				borrowTimeouts.incrementAndGet();
+				throw new HandleException(HandleException.INTERNAL_ERROR,
+						"Timed out waiting for a Handle System connection");
+			}
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new HandleException(HandleException.INTERNAL_ERROR,
+					"Interrupted while waiting for a Handle System connection");
+		}
+		try {
+			Entry entry;
+			while ((entry = idle.pollFirst()) != null) {
+				if ((System.currentTimeMillis() - entry.lastUsed < VALIDATION_INTERVAL)
+						|| isHealthy(entry.adapter))
+					return entry.adapter;
+				// discard broken instance and try the next one
+				size.decrementAndGet();
+			}
+			return createAdapter();
+		} catch (HandleException exc) {
+			permits.release();
+			throw exc;
+		} catch (RuntimeException exc) {
+			permits.release();
+			throw exc;
+		}
+	}
+
+	/**
+	 * Gives a borrowed instance back to the pool.
+	 */
+	public void release(HSAdapter adapter) {
+		// most recently used instances are handed out first, so surplus
+		// instances age at the end of the deque and get evicted
+		idle.addFirst(new Entry(adapter));
+		permits.release();
+	}
+
+	private boolean isHealthy(HSAdapter adapter) {
+		try {
+			adapter.resolveHandle(healthCheckHandle, null, healthCheckIndexes);
+			return true;
+		} catch (Exception exc) {
+			failedHealthChecks.incrementAndGet();
+			logger.warn("Discarding pooled HSAdapter after failed health check: "
+					+ exc);
+			return false;
+		}
+	}
+
+	/**
+	 * Evicts instances beyond the minimum size that have been idle for longer
+	 * than the idle timeout.
+	 */
+	void evictIdle() {
+		long threshold = System.currentTimeMillis() - idleTimeoutMillis;
+		for (Iterator<Entry> iter = idle.descendingIterator(); iter.hasNext();) {
+			Entry entry = iter.next();
+			if (size.get() <= minSize)
+				break;
+			if ((entry.lastUsed < threshold) && idle.removeLastOccurrence(entry)) {
+				size.decrementAndGet();
+				evicted.incrementAndGet();
+			}
+		}
+	}
+
+	public void shutdown() {
+		evictor.shutdownNow();
+		idle.clear();
+	}
+
+	/**
+	 * Applies the setting to all current and future instances.
+	 */
+	public void setTcpTimeout(int newTcpTimeout) {
+		this.tcpTimeout = newTcpTimeout;
+		for (HSAdapter adapter : idleAdapters())
+			adapter.setTcpTimeout(newTcpTimeout);
+	}
+
+	public int getTcpTimeout() {
+		return tcpTimeout;
+	}
+
+	/**
+	 * Applies the setting to all current and future instances.
+	 */
+	public void setUseUDP(boolean useUDP) {
+		this.useUDP = useUDP;
+		for (HSAdapter adapter : idleAdapters())
+			adapter.setUseUDP(useUDP);
+	}
+
+	private List<HSAdapter> idleAdapters() {
+		List<HSAdapter> adapters = new ArrayList<HSAdapter>();
+		for (Entry entry : idle)
+			adapters.add(entry.adapter);
+		return adapters;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of instances currently held, idle or borrowed
+	 */
+	public int getSize() {
+		return size.get();
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	public long getCreatedCount() {
+		return created.get();
+	}
+
+	public long getEvictedCount() {
+		return evicted.get();
+	}
+
+	public long getFailedHealthChecks() {
+		return failedHealthChecks.get();
+	}
+
+	public long getBorrowTimeouts() {
+		return borrowTimeouts.get();
+	}
+
+	private static class Entry {
+		final HSAdapter adapter;
+		final long lastUsed;
+
+		Entry(HSAdapter adapter) {
+			this.adapter = adapter;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+
+}
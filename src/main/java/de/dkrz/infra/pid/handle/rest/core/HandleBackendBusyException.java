@@ -0,0 +1,16 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+/**
+ * Thrown when a Handle System call could not even be started because all
+ * backend threads were busy. Unlike a plain timeout, the call was never sent,
+ * so it is answered with 503 Service Unavailable instead of 504.
+ */
+public class HandleBackendBusyException extends HandleTimeoutException {
+
+	private static final long serialVersionUID = 1L;
+
+	public HandleBackendBusyException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,109 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.handle.hdllib.HandleValue;
+
+/**
+ * Entity tags for Handle records. The tag is a digest over index, type, data,
+ * timestamp, TTL and permissions of all values, taken in index order, so it
+ * changes whenever any value of the record is modified.
+ */
+public class HandleETag {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final Comparator<HandleValue> BY_INDEX = new Comparator<HandleValue>() {
+		public int compare(HandleValue hv1, HandleValue hv2) {
+			return (hv1.getIndex() < hv2.getIndex()) ? -1 : ((hv1.getIndex() == hv2
+					.getIndex()) ? 0 : 1);
+		}
+	};
+
+	private HandleETag() {
+	}
+
+	/**
+	 * Computes the (strong) entity tag of a Handle record.
+	 *
+	 * @return the opaque tag value, without quotes
+	 */
+	public static String compute(HandleValue[] values) {
+		HandleValue[] sorted = values.clone();
+		Arrays.sort(sorted, BY_INDEX);
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException exc) {
+			// every JRE must provide MD5
+			throw new IllegalStateException(exc);
+		}
+		byte[] buf = new byte[4];
+		for (HandleValue hv : sorted) {
+			md.update(intToBytes(hv.getIndex(), buf));
+			md.update(hv.getType());
+			md.update((byte) 0);
+			md.update(hv.getData());
+			md.update((byte) 0);
+			md.update(intToBytes(hv.getTimestamp(), buf));
+			md.update(hv.getTTLType());
+			md.update(intToBytes(hv.getTTL(), buf));
+			md.update((byte) ((hv.getAdminCanRead() ? 1 : 0)
+					| (hv.getAdminCanWrite() ? 2 : 0)
+					| (hv.getAnyoneCanRead() ? 4 : 0) | (hv
+					.getAnyoneCanWrite() ? 8 : 0)));
+		}
+		byte[] digest = md.digest();
+		char[] hex = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	private static byte[] intToBytes(int value, byte[] buf) {
+		buf[0] = (byte) (value >>> 24);
+		buf[1] = (byte) (value >>> 16);
+		buf[2] = (byte) (value >>> 8);
+		buf[3] = (byte) value;
+		return buf;
+	}
+
+	/**
+	 * Checks whether an If-Match or If-None-Match header value matches the
+	 * given entity tag.
+	 *
+	 * @param header
+	 *            header value: "*" or a comma-separated list of quoted tags
+	 * @param etag
+	 *            current tag value, without quotes
+	 * @param weak
+	 *            if true, weak tags (W/"...") are compared as well (weak
+	 *            comparison, for If-None-Match); otherwise they never match
+	 *            (strong comparison, for If-Match)
+	 */
+	public static boolean matches(String header, String etag, boolean weak) {
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*"))
+				return true;
+			if (candidate.startsWith("W/")) {
+				if (!weak)
+					continue;
+				candidate = candidate.substring(2);
+			}
+			if ((candidate.length() >= 2) && candidate.startsWith("\"")
+					&& candidate.endsWith("\"")) {
+				candidate = candidate.substring(1, candidate.length() - 1);
+			}
+			if (candidate.equals(etag))
+				return true;
+		}
+		return false;
+	}
+
+}
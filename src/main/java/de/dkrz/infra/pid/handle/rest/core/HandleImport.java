@@ -0,0 +1,624 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+import net.handle.hdllib.Util;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Import of Handle records from newline-delimited JSON, e.g. from an export.
+ *
+ * Each line holds one record in the representation returned by GET: an
+ * object with the fields "handle" and "values". Each value has "idx", "type"
+ * and "data" (base64) and optionally "ttl_type", "ttl" and "privs"; other
+ * fields are ignored. Instead of "data", a value may give its data as text in
+ * "parsed_data".
+ *
+ * Records are read in batches. While one batch is written concurrently, the
+ * next one is parsed. Once all records of a batch are written, the byte
+ * offset after it is checkpointed to "&lt;id&gt;.checkpoint" in the state
+ * directory, so that an interrupted import can be resumed from there. Records
+ * that cannot be parsed or written are counted and appended to
+ * "&lt;id&gt;.failed" along with the checkpoint of their batch, so that a
+ * resumed import does not report them twice. Transient failures of the
+ * Handle System are retried a few times and then abort the import, which can
+ * be resumed from the checkpoint later.
+ */
+public class HandleImport {
+
+	public enum Status {
+		IDLE, RUNNING, COMPLETED, ABORTED
+	}
+
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/**
+	 * Lines longer than this (in bytes) are rejected as failed records.
+	 */
+	public static final int MAX_LINE_LENGTH = 16 * 1024 * 1024;
+
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long MIN_BACKOFF = 100;
+	private static final long PROGRESS_INTERVAL = 10000;
+
+	private static final Logger logger = Logger.getLogger(HandleImport.class);
+
+	private final String id;
+	private final File checkpointFile;
+	private final File failedFile;
+	private final HSAdapter hsAdapter;
+	private final ApplicationContext context;
+	private final ExecutorService executor;
+	private final int batchSize;
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	private final AtomicBoolean running = new AtomicBoolean();
+	private volatile Status status = Status.IDLE;
+	private volatile long checkpoint;
+	private volatile long position;
+	private volatile long startOffset;
+	private volatile long startedAt;
+	private volatile long finishedAt;
+	private final AtomicLong records = new AtomicLong();
+	private final AtomicLong imported = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Opens an import, picking up its checkpoint if it ran before.
+	 *
+	 * @param stateDir
+	 *            directory holding checkpoints and failed records
+	 * @param id
+	 *            name of the import, used for its state files
+	 * @param executor
+	 *            runs the writes of a batch
+	 */
+	public HandleImport(File stateDir, String id, HSAdapter hsAdapter,
+			ApplicationContext context, ExecutorService executor,
+			int batchSize) throws IOException {
+		this.id = id;
+		this.checkpointFile = new File(stateDir, id + ".checkpoint");
+		this.failedFile = new File(stateDir, id + ".failed");
+		this.hsAdapter = hsAdapter;
+		this.context = context;
+		this.executor = executor;
+		this.batchSize = batchSize;
+		if (checkpointFile.exists()) {
+			Reader reader = new InputStreamReader(new FileInputStream(
+					checkpointFile), "UTF-8");
+			try {
+				StringBuilder sb = new StringBuilder();
+				int c;
+				while ((c = reader.read()) >= 0)
+					sb.append((char) c);
+				this.checkpoint = Long.parseLong(sb.toString().trim());
+			} catch (NumberFormatException exc) {
+				throw new IOException("Corrupt checkpoint file "
+						+ checkpointFile);
+			} finally {
+				reader.close();
+			}
+		}
+		this.position = checkpoint;
+	}
+
+	/**
+	 * @return true if the import has a checkpoint, i.e. ran before
+	 */
+	public boolean hasState() {
+		return checkpointFile.exists();
+	}
+
+	/**
+	 * Imports the records read from the given stream, starting at the
+	 * checkpoint. The stream may hold the whole input or only a part of it,
+	 * as long as the part does not start after the checkpoint.
+	 *
+	 * @param in
+	 *            stream of NDJSON records
+	 * @param offset
+	 *            position of the first byte of the stream in the whole input
+	 * @throws IllegalStateException
+	 *             if the import is running already or the stream starts after
+	 *             the checkpoint
+	 * @throws HandleException
+	 *             if the import was aborted because of a transient failure
+	 */
+	public void run(InputStream in, long offset) throws IOException,
+			HandleException {
+		if (!running.compareAndSet(false, true))
+			throw new IllegalStateException("Import " + id
+					+ " is already running");
+		if (offset > checkpoint) {
+			running.set(false);
+			throw new IllegalStateException("Import " + id
+					+ " must be resumed at offset " + checkpoint);
+		}
+		try {
+			status = Status.RUNNING;
+			records.set(0);
+			imported.set(0);
+			failed.set(0);
+			startOffset = checkpoint;
+			startedAt = System.currentTimeMillis();
+			finishedAt = 0;
+			LineReader reader = new LineReader(in, offset);
+			reader.skipTo(checkpoint);
+			long lastProgress = startedAt;
+			Batch pending = null;
+			while (true) {
+				Batch batch = readBatch(reader);
+				if (pending != null) {
+					awaitBatch(pending.writes);
+					writeCheckpoint(pending);
+				}
+				if (batch.tasks.isEmpty()) {
+					// only failed records left in the input
+					writeCheckpoint(batch);
+					break;
+				}
+				for (Callable<Void> task : batch.tasks)
+					batch.writes.add(executor.submit(task));
+				pending = batch;
+				if (System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL) {
+					lastProgress = System.currentTimeMillis();
+					logger.info(toString());
+				}
+			}
+			status = Status.COMPLETED;
+			logger.info(toString());
+		} catch (IOException exc) {
+			status = Status.ABORTED;
+			throw exc;
+		} catch (HandleException exc) {
+			status = Status.ABORTED;
+			throw exc;
+		} catch (RuntimeException exc) {
+			status = Status.ABORTED;
+			throw exc;
+		} finally {
+			finishedAt = System.currentTimeMillis();
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Reads up to a batch of records. Lines that cannot be parsed are
+	 * recorded as failed records of the batch.
+	 *
+	 * @return the batch, with tasks writing the records read
+	 */
+	private Batch readBatch(LineReader reader) throws IOException {
+		final Batch batch = new Batch(batchSize);
+		while (batch.tasks.size() < batchSize) {
+			long lineOffset = reader.position;
+			int len = reader.readLine();
+			position = reader.position;
+			if (len == LineReader.EOF)
+				break;
+			if (len == 0)
+				continue;
+			records.incrementAndGet();
+			if (len == LineReader.TOO_LONG) {
+				batch.fail(lineOffset, null, "Line exceeds "
+						+ MAX_LINE_LENGTH + " bytes");
+				continue;
+			}
+			final String[] handle = new String[1];
+			final HandleValue[] values;
+			try {
+				values = parseRecord(reader.line, len, handle);
+			} catch (IOException exc) {
+				batch.fail(lineOffset, handle[0], exc.getMessage());
+				continue;
+			}
+			final long recordOffset = lineOffset;
+			batch.tasks.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					write(batch, recordOffset, handle[0], values);
+					return null;
+				}
+			});
+		}
+		batch.end = reader.position;
+		return batch;
+	}
+
+	/**
+	 * Parses a record.
+	 *
+	 * @param handle
+	 *            receives the Handle name as soon as it has been read
+	 */
+	private HandleValue[] parseRecord(byte[] line, int len, String[] handle)
+			throws IOException {
+		JsonParser json = jsonFactory.createParser(line, 0, len);
+		if (!JsonToken.START_OBJECT.equals(json.nextToken()))
+			throw new JsonParseException("Record must be a JSON object",
+					json.getCurrentLocation());
+		List<HandleValue> values = null;
+		while (JsonToken.FIELD_NAME.equals(json.nextToken())) {
+			String field = json.getCurrentName();
+			JsonToken token = json.nextToken();
+			if (field.equals("handle")) {
+				handle[0] = json.getText();
+			} else if (field.equals("values")) {
+				if (!JsonToken.START_ARRAY.equals(token))
+					throw new JsonParseException(
+							"Field \"values\" must be an array",
+							json.getCurrentLocation());
+				values = new ArrayList<HandleValue>();
+				while (JsonToken.START_OBJECT.equals(json.nextToken()))
+					values.add(parseValue(json));
+				if (!JsonToken.END_ARRAY.equals(json.getCurrentToken()))
+					throw new JsonParseException("Values must be objects",
+							json.getCurrentLocation());
+			} else
+				json.skipChildren();
+		}
+		json.close();
+		if ((handle[0] == null) || !handle[0].contains("/"))
+			throw new JsonParseException("No full Handle name given",
+					json.getCurrentLocation());
+		if (values == null)
+			throw new JsonParseException("No values given",
+					json.getCurrentLocation());
+		return values.toArray(new HandleValue[values.size()]);
+	}
+
+	private static HandleValue parseValue(JsonParser json) throws IOException {
+		int index = -1;
+		String type = null;
+		byte[] data = null;
+		String privs = null;
+		HandleValue hv = new HandleValue();
+		while (JsonToken.FIELD_NAME.equals(json.nextToken())) {
+			String field = json.getCurrentName();
+			json.nextToken();
+			if (field.equals("idx")) {
+				index = json.getIntValue();
+			} else if (field.equals("type")) {
+				type = json.getText();
+			} else if (field.equals("data")) {
+				data = json.getBinaryValue();
+			} else if (field.equals("parsed_data")) {
+				if (data == null)
+					data = Util.encodeString(json.getText());
+			} else if (field.equals("ttl_type")) {
+				hv.setTTLType((byte) json.getIntValue());
+			} else if (field.equals("ttl")) {
+				hv.setTTL(json.getIntValue());
+			} else if (field.equals("privs")) {
+				privs = json.getText();
+			} else
+				json.skipChildren();
+		}
+		if ((index < 0) || (type == null) || (data == null))
+			throw new JsonParseException(
+					"Values must specify index, type and data",
+					json.getCurrentLocation());
+		hv.setIndex(index);
+		hv.setType(Util.encodeString(type));
+		hv.setData(data);
+		if ((privs != null) && (privs.length() == 4)) {
+			hv.setAdminCanRead(privs.charAt(0) == 'r');
+			hv.setAdminCanWrite(privs.charAt(1) == 'w');
+			hv.setAnyoneCanRead(privs.charAt(2) == 'r');
+			hv.setAnyoneCanWrite(privs.charAt(3) == 'w');
+		}
+		hv.setTimestamp((int) (System.currentTimeMillis() / 1000));
+		return hv;
+	}
+
+	/**
+	 * Writes a record, retrying transient failures a few times.
+	 *
+	 * @throws Exception
+	 *             the transient failure if all attempts failed
+	 */
+	private void write(Batch batch, long offset, String handle,
+			HandleValue[] values) throws Exception {
+		long backoff = MIN_BACKOFF;
+		for (int attempt = 1;; attempt++) {
+			try {
+				JournalDrainer.register(hsAdapter, context, handle, values);
+				imported.incrementAndGet();
+				return;
+			} catch (HandleException exc) {
+				if (!JournalDrainer.isTransient(exc)) {
+					batch.fail(offset, handle, exc.toString());
+					return;
+				}
+				if (attempt == MAX_ATTEMPTS)
+					throw exc;
+			} catch (RuntimeException exc) {
+				logger.error(exc.getMessage(), exc);
+				batch.fail(offset, handle, exc.toString());
+				return;
+			}
+			Thread.sleep(backoff);
+			backoff *= 2;
+		}
+	}
+
+	/**
+	 * Waits for all writes of a batch.
+	 *
+	 * @throws HandleException
+	 *             the first transient failure that could not be overcome
+	 */
+	private void awaitBatch(List<Future<Void>> batch) throws HandleException {
+		Throwable failure = null;
+		for (Future<Void> write : batch) {
+			try {
+				write.get();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw new HandleException(HandleException.INTERNAL_ERROR,
+						"Interrupted while waiting for writes");
+			} catch (ExecutionException exc) {
+				if (failure == null)
+					failure = exc.getCause();
+			}
+		}
+		if (failure instanceof HandleException)
+			throw (HandleException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure != null)
+			throw new IllegalStateException(failure);
+	}
+
+	/**
+	 * Persists the checkpoint after a batch and appends its failed records:
+	 * the checkpoint is written to a temporary file, forced to disk and
+	 * renamed, so that a crash leaves either the old or the new checkpoint.
+	 */
+	private void writeCheckpoint(Batch batch) throws IOException {
+		writeFailures(batch.failures);
+		File tmp = new File(checkpointFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write((batch.end + "\n").getBytes("UTF-8"));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(checkpointFile)) {
+			// not atomic on all platforms
+			checkpointFile.delete();
+			if (!tmp.renameTo(checkpointFile))
+				throw new IOException("Cannot write checkpoint "
+						+ checkpointFile);
+		}
+		checkpoint = batch.end;
+	}
+
+	private void writeFailures(List<String> failures) {
+		if (failures.isEmpty())
+			return;
+		failed.addAndGet(failures.size());
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(
+					failedFile, true), "UTF-8");
+			try {
+				for (String failure : failures)
+					writer.write(failure);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException exc) {
+			logger.error("Cannot write failed records of import " + id, exc);
+		}
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the offset up to which all records have been processed
+	 */
+	public long getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @return the offset up to which the input has been read
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the number of records read in the current or last run
+	 */
+	public long getRecords() {
+		return records.get();
+	}
+
+	public long getImported() {
+		return imported.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the run time of the current or last run in milliseconds
+	 */
+	public long getElapsedMillis() {
+		if (startedAt == 0)
+			return 0;
+		return ((finishedAt != 0) ? finishedAt : System.currentTimeMillis())
+				- startedAt;
+	}
+
+	public double getRecordsPerSecond() {
+		long elapsed = getElapsedMillis();
+		return (elapsed > 0) ? getRecords() * 1000.0 / elapsed : 0;
+	}
+
+	public double getBytesPerSecond() {
+		long elapsed = getElapsedMillis();
+		return (elapsed > 0) ? (position - startOffset) * 1000.0 / elapsed : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "HandleImport [id=" + id + ", status=" + status
+				+ ", checkpoint=" + checkpoint + ", records=" + getRecords()
+				+ ", imported=" + getImported() + ", failed=" + getFailed()
+				+ ", records/s=" + (long) getRecordsPerSecond() + "]";
+	}
+
+	/**
+	 * Records read together and checkpointed together, up to the offset
+	 * {@link #end}.
+	 */
+	private static class Batch {
+
+		final List<Callable<Void>> tasks;
+		final List<Future<Void>> writes;
+		final List<String> failures = Collections
+				.synchronizedList(new ArrayList<String>());
+		long end;
+
+		Batch(int size) {
+			this.tasks = new ArrayList<Callable<Void>>(size);
+			this.writes = new ArrayList<Future<Void>>(size);
+		}
+
+		/**
+		 * Records a failed record; called by the writers, too.
+		 */
+		void fail(long offset, String handle, String reason) {
+			failures.add(offset + "\t" + handle + "\t"
+					+ String.valueOf(reason).replace('\n', ' ') + "\n");
+		}
+	}
+
+	/**
+	 * Splits a stream into lines, keeping track of the byte offset.
+	 */
+	private static class LineReader {
+
+		static final int EOF = -1;
+		static final int TOO_LONG = -2;
+
+		private final InputStream in;
+		private final byte[] buffer = new byte[65536];
+		private int bufferPos = 0;
+		private int bufferLen = 0;
+		byte[] line = new byte[1024];
+		long position;
+
+		LineReader(InputStream in, long offset) {
+			this.in = in;
+			this.position = offset;
+		}
+
+		private boolean fill() throws IOException {
+			int n = in.read(buffer);
+			bufferPos = 0;
+			bufferLen = Math.max(n, 0);
+			return n > 0;
+		}
+
+		void skipTo(long offset) throws IOException {
+			while (position < offset) {
+				if ((bufferPos == bufferLen) && !fill())
+					throw new IOException("Input ends before offset "
+							+ offset);
+				int n = (int) Math.min(bufferLen - bufferPos, offset
+						- position);
+				bufferPos += n;
+				position += n;
+			}
+		}
+
+		/**
+		 * Reads the next line into {@link #line}, without the line
+		 * terminator.
+		 *
+		 * @return the length of the line, {@link #EOF} at the end of the
+		 *         input or {@link #TOO_LONG}
+		 */
+		int readLine() throws IOException {
+			int len = 0;
+			boolean tooLong = false;
+			boolean terminated = false;
+			boolean empty = true;
+			while (!terminated) {
+				if ((bufferPos == bufferLen) && !fill())
+					break;
+				empty = false;
+				int start = bufferPos;
+				while ((bufferPos < bufferLen)
+						&& (buffer[bufferPos] != '\n'))
+					bufferPos++;
+				int n = bufferPos - start;
+				if (bufferPos < bufferLen) {
+					// consume the terminator
+					bufferPos++;
+					terminated = true;
+				}
+				position += bufferPos - start;
+				if (tooLong)
+					continue;
+				if (len + n > MAX_LINE_LENGTH) {
+					tooLong = true;
+					continue;
+				}
+				if (len + n > line.length) {
+					byte[] newLine = new byte[Math.min(MAX_LINE_LENGTH,
+							Math.max(2 * line.length, len + n))];
+					System.arraycopy(line, 0, newLine, 0, len);
+					line = newLine;
+				}
+				System.arraycopy(buffer, start, line, len, n);
+				len += n;
+			}
+			if (empty)
+				return EOF;
+			if (tooLong)
+				return TOO_LONG;
+			if ((len > 0) && (line[len - 1] == '\r'))
+				len--;
+			return len;
+		}
+	}
+
+}
@@ -0,0 +1,334 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sorted index of the names of all Handles created through this service, used
+ * to list Handles without scanning the Handle server.
+ * 
+ * The names are held in a sorted set in memory. If a log file is given, every
+ * change is appended to it as a line "+name" or "-name", and the set is
+ * rebuilt from the log on startup. Changes are applied to the set and written
+ * to the log under the same lock, so the log has them in the order they were
+ * applied. Writers that arrive while the log is flushed are flushed together
+ * in the next round.
+ * 
+ * Once the log holds more than twice as many lines as there are names, it is
+ * compacted to one line per name in the background: the names are written to
+ * a new file while changes keep going to the old log and are also recorded,
+ * then the recorded changes are appended, the new file is synced and replaces
+ * the old log. If compaction fails, the old log is simply kept.
+ * 
+ * The index is not bounded: every name costs about 100 bytes plus two bytes
+ * per character of heap, i.e. some 200 MB per million names of typical
+ * length. It is meant for up to a few million Handles; the heap has to be
+ * sized accordingly.
+ */
+public class HandleNameIndex {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MIN_COMPACTION_SIZE = 10000;
+
+	private static final Logger logger = Logger
+			.getLogger(HandleNameIndex.class);
+
+	private final ConcurrentSkipListSet<String> names = new ConcurrentSkipListSet<String>();
+
+	private final File logFile;
+	// guarded by this
+	private Writer log;
+	private long logEntries;
+	private long written;
+	private boolean closed;
+	// changes made while a compaction runs, or null if none runs
+	private List<String> pending;
+
+	// guarded by flushLock
+	private final Object flushLock = new Object();
+	private long flushed;
+
+	/**
+	 * Creates an index held in memory only.
+	 */
+	public HandleNameIndex() {
+		this.logFile = null;
+	}
+
+	/**
+	 * Creates an index persisted to the given log file, replaying it if it
+	 * exists.
+	 */
+	public HandleNameIndex(File logFile) throws IOException {
+		this.logFile = logFile;
+		if (logFile.exists())
+			replay();
+		compact();
+	}
+
+	private void replay() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(logFile), UTF8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() < 2)
+					continue;
+				if (line.charAt(0) == '+')
+					names.add(line.substring(1));
+				else if (line.charAt(0) == '-')
+					names.remove(line.substring(1));
+				else
+					logger.warn("Skipping corrupt index log line: " + line);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Rewrites the log file with one entry per indexed name, unless a
+	 * compaction is running already. Changes may go on meanwhile.
+	 */
+	public void compact() throws IOException {
+		if (logFile == null)
+			return;
+		synchronized (this) {
+			if ((pending != null) || closed)
+				return;
+			pending = new ArrayList<String>();
+		}
+		writeCompacted();
+	}
+
+	/**
+	 * Starts a compaction on a background thread. Must be called with the
+	 * lock held.
+	 */
+	private void startCompaction() {
+		if (pending != null)
+			return;
+		pending = new ArrayList<String>();
+		new NamedThreadFactory("handle-rest-index").newThread(new Runnable() {
+			public void run() {
+				try {
+					writeCompacted();
+				} catch (IOException exc) {
+					logger.error("Cannot compact index log " + logFile
+							+ "; keeping it", exc);
+				}
+			}
+		}).start();
+	}
+
+	/**
+	 * Writes the names and the pending changes to a new file and puts it in
+	 * place of the log. The old log is only replaced once the new file is
+	 * complete and on disk.
+	 */
+	private void writeCompacted() throws IOException {
+		File tmpFile = new File(logFile.getPath() + ".tmp");
+		boolean replaced = false;
+		try {
+			FileOutputStream out = new FileOutputStream(tmpFile);
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+					UTF8));
+			try {
+				long entries = 0;
+				for (String name : names) {
+					writer.write('+');
+					writer.write(name);
+					writer.write('\n');
+					entries++;
+				}
+				writer.flush();
+				out.getFD().sync();
+				synchronized (this) {
+					// changes made while the names were written; replaying
+					// them after the names yields the current set
+					for (String change : pending) {
+						writer.write(change);
+						writer.write('\n');
+					}
+					entries += pending.size();
+					writer.flush();
+					out.getFD().sync();
+					writer.close();
+					if (!tmpFile.renameTo(logFile)) {
+						// some platforms do not replace existing files on
+						// rename
+						logFile.delete();
+						if (!tmpFile.renameTo(logFile))
+							throw new IOException("Cannot replace index log "
+									+ logFile);
+					}
+					replaced = true;
+					Writer oldLog = log;
+					this.log = new BufferedWriter(new OutputStreamWriter(
+							new FileOutputStream(logFile, true), UTF8));
+					this.logEntries = entries;
+					if (oldLog != null)
+						closeQuietly(oldLog);
+				}
+			} finally {
+				closeQuietly(writer);
+			}
+		} finally {
+			synchronized (this) {
+				pending = null;
+				notifyAll();
+			}
+			if (!replaced)
+				tmpFile.delete();
+		}
+	}
+
+	private static void closeQuietly(Writer writer) {
+		try {
+			writer.close();
+		} catch (IOException exc) {
+			logger.warn("Cannot close index log", exc);
+		}
+	}
+
+	/**
+	 * Writes a change to the log buffer. Must be called with the lock held.
+	 * 
+	 * @return sequence number of the change, to be passed to flush(), or 0
+	 *         if there is nothing to flush
+	 */
+	private long append(char op, String name) {
+		if (log == null)
+			return 0;
+		if (pending != null)
+			pending.add(op + name);
+		try {
+			log.write(op);
+			log.write(name);
+			log.write('\n');
+			logEntries++;
+			if (logEntries > Math.max(MIN_COMPACTION_SIZE, 2L * names.size()))
+				startCompaction();
+		} catch (IOException exc) {
+			logger.error("Cannot write index log " + logFile, exc);
+			return 0;
+		}
+		return ++written;
+	}
+
+	/**
+	 * Makes sure the change with the given sequence number has been handed
+	 * to the operating system, flushing all changes written so far at once.
+	 */
+	private void flush(long sequence) {
+		if (sequence == 0)
+			return;
+		synchronized (flushLock) {
+			if (flushed >= sequence)
+				return;
+			long upTo;
+			synchronized (this) {
+				upTo = written;
+				try {
+					if (log != null)
+						log.flush();
+				} catch (IOException exc) {
+					logger.error("Cannot write index log " + logFile, exc);
+				}
+			}
+			flushed = upTo;
+		}
+	}
+
+	public void add(String handle) {
+		long sequence = 0;
+		synchronized (this) {
+			if (names.add(handle))
+				sequence = append('+', handle);
+		}
+		flush(sequence);
+	}
+
+	public void remove(String handle) {
+		long sequence = 0;
+		synchronized (this) {
+			if (names.remove(handle))
+				sequence = append('-', handle);
+		}
+		flush(sequence);
+	}
+
+	public boolean contains(String handle) {
+		return names.contains(handle);
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Lists indexed names in lexicographical order.
+	 * 
+	 * @param prefix
+	 *            restrict to Handles under this prefix, or null for all
+	 * @param cursor
+	 *            only names after this one are returned, or null to start at
+	 *            the beginning
+	 * @param limit
+	 *            maximum number of names returned
+	 */
+	public List<String> list(String prefix, String cursor, int limit) {
+		String start = (prefix == null) ? "" : prefix + "/";
+		NavigableSet<String> tail;
+		if ((cursor != null) && (cursor.compareTo(start) >= 0))
+			tail = names.tailSet(cursor, false);
+		else
+			tail = names.tailSet(start, true);
+		List<String> result = new ArrayList<String>(Math.min(limit, 1024));
+		for (Iterator<String> iter = tail.iterator(); iter.hasNext()
+				&& (result.size() < limit);) {
+			String name = iter.next();
+			if (!name.startsWith(start))
+				break;
+			result.add(name);
+		}
+		return result;
+	}
+
+	/**
+	 * Waits for a running compaction and closes the log.
+	 */
+	public synchronized void close() throws IOException {
+		while (pending != null) {
+			try {
+				wait();
+			} catch (InterruptedException exc) {
+				throw new InterruptedIOException(
+						"Interrupted waiting for index compaction");
+			}
+		}
+		closed = true;
+		if (log != null) {
+			log.close();
+			log = null;
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+import net.handle.hdllib.ValueReference;
+
+/**
+ * Difference between the current values of a Handle and the values it should
+ * have after an overwrite, matched by index. HS_ADMIN values missing from the
+ * new values are kept rather than deleted, and cannot be replaced by values of
+ * another type.
+ */
+public class HandleRecordDiff {
+
+	private static final HandleValue[] EMPTY = new HandleValue[0];
+
+	private final HandleValue[] toDelete;
+	private final HandleValue[] toUpdate;
+	private final HandleValue[] toAdd;
+
+	private HandleRecordDiff(HandleValue[] toDelete, HandleValue[] toUpdate,
+			HandleValue[] toAdd) {
+		this.toDelete = toDelete;
+		this.toUpdate = toUpdate;
+		this.toAdd = toAdd;
+	}
+
+	/**
+	 * Computes the changes turning the original values into the new ones.
+	 * 
+	 * @param hvOrig
+	 *            current values of the Handle
+	 * @param hvNew
+	 *            values the Handle should have; indexes must be unique
+	 * @throws HandleException
+	 *             with code INVALID_VALUE if two new values share an index or
+	 *             a new value would replace an HS_ADMIN value with a value of
+	 *             another type
+	 */
+	public static HandleRecordDiff compute(HandleValue[] hvOrig,
+			HandleValue[] hvNew) throws HandleException {
+		Set<Integer> indexes = new HashSet<Integer>(hvNew.length * 2);
+		for (HandleValue hv : hvNew) {
+			if (!indexes.add(hv.getIndex()))
+				throw new HandleException(HandleException.INVALID_VALUE,
+						"Duplicate index " + hv.getIndex() + " in new values");
+		}
+		Map<Integer, HandleValue> orig = new HashMap<Integer, HandleValue>(
+				hvOrig.length * 2);
+		for (HandleValue hv : hvOrig) {
+			orig.put(hv.getIndex(), hv);
+		}
+		List<HandleValue> update = new ArrayList<HandleValue>();
+		List<HandleValue> add = new ArrayList<HandleValue>();
+		for (HandleValue hv : hvNew) {
+			HandleValue old = orig.remove(hv.getIndex());
+			if (old == null)
+				add.add(hv);
+			else if (isAdmin(old) && !isAdmin(hv))
+				throw new HandleException(HandleException.INVALID_VALUE,
+						"HS_ADMIN value at index " + hv.getIndex()
+								+ " cannot be replaced by a "
+								+ hv.getTypeAsString() + " value");
+			else if (!sameContent(old, hv))
+				update.add(hv);
+		}
+		// whatever is left was not mentioned in the new values
+		List<HandleValue> delete = new ArrayList<HandleValue>(orig.size());
+		for (HandleValue hv : orig.values()) {
+			if (!isAdmin(hv))
+				delete.add(hv);
+		}
+		return new HandleRecordDiff(delete.toArray(EMPTY),
+				update.toArray(EMPTY), add.toArray(EMPTY));
+	}
+
+	private static boolean isAdmin(HandleValue hv) {
+		return hv.getTypeAsString().equals("HS_ADMIN");
+	}
+
+	/**
+	 * Compares all values fields the client controls; timestamps are
+	 * ignored.
+	 */
+	static boolean sameContent(HandleValue hv1, HandleValue hv2) {
+		return Arrays.equals(hv1.getType(), hv2.getType())
+				&& Arrays.equals(hv1.getData(), hv2.getData())
+				&& (hv1.getTTLType() == hv2.getTTLType())
+				&& (hv1.getTTL() == hv2.getTTL())
+				&& (hv1.getAdminCanRead() == hv2.getAdminCanRead())
+				&& (hv1.getAdminCanWrite() == hv2.getAdminCanWrite())
+				&& (hv1.getAnyoneCanRead() == hv2.getAnyoneCanRead())
+				&& (hv1.getAnyoneCanWrite() == hv2.getAnyoneCanWrite())
+				&& sameReferences(hv1.getReferences(), hv2.getReferences());
+	}
+
+	private static boolean sameReferences(ValueReference[] refs1,
+			ValueReference[] refs2) {
+		int len1 = (refs1 == null) ? 0 : refs1.length;
+		int len2 = (refs2 == null) ? 0 : refs2.length;
+		if (len1 != len2)
+			return false;
+		for (int i = 0; i < len1; i++) {
+			if (!refs1[i].equals(refs2[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the changes to a Handle with at most one delete, one update and
+	 * one add call, in this order; does nothing if the diff is empty.
+	 */
+	public void apply(HSAdapter hsAdapter, String handle)
+			throws HandleException {
+		if (toDelete.length > 0)
+			hsAdapter.deleteHandleValues(handle, toDelete);
+		if (toUpdate.length > 0)
+			hsAdapter.updateHandleValues(handle, toUpdate);
+		if (toAdd.length > 0)
+			hsAdapter.addHandleValues(handle, toAdd);
+	}
+
+	@Override
+	public String toString() {
+		return "delete " + Arrays.toString(toDelete) + ", update "
+				+ Arrays.toString(toUpdate) + ", add " + Arrays.toString(toAdd);
+	}
+
+	public HandleValue[] getToDelete() {
+		return toDelete;
+	}
+
+	public HandleValue[] getToUpdate() {
+		return toUpdate;
+	}
+
+	public HandleValue[] getToAdd() {
+		return toAdd;
+	}
+
+	/**
+	 * @return true if the Handle already has the new values
+	 */
+	public boolean isEmpty() {
+		return (toDelete.length == 0) && (toUpdate.length == 0)
+				&& (toAdd.length == 0);
+	}
+
+}
@@ -0,0 +1,194 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.io.IOException;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Incremental reader for Handle records in JSON request bodies. Records are
+ * parsed one at a time from the underlying stream, so that large requests can
+ * be processed without materialising them completely.
+ *
+ * Array-based JSON (the base element is an array of values) yields a single
+ * record without a Handle name. Object-based JSON, as used by the EPIC API,
+ * maps Handle names to value arrays and yields one record per name:
+ * 
+ * <pre>
+ * {"10876/abc": [{"idx": 1, "type": "URL", "data": "http://..."}],
+ *  "10876/def": [...]}
+ * </pre>
+ * 
+ * An empty name stands for a record whose name is to be generated.
+ */
+public class HandleRecordReader {
+
+	/*
+	 * Field names as interned by the parser's symbol table; matching field
+	 * names by reference avoids creating and comparing Strings per field.
+	 */
+	private static final String FIELD_IDX = "idx";
+	private static final String FIELD_TYPE = "type";
+	private static final String FIELD_DATA = "data";
+
+	private final JsonParser json;
+	private final HSAdapter hsAdapter;
+
+	private boolean started = false;
+	private boolean finished = false;
+	private boolean objectBased = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param json
+	 *            parser positioned before the base element
+	 * @param hsAdapter
+	 *            adapter used to create the HandleValue instances
+	 */
+	public HandleRecordReader(JsonParser json, HSAdapter hsAdapter) {
+		this.json = json;
+		this.hsAdapter = hsAdapter;
+	}
+
+	/**
+	 * Reads the next record.
+	 *
+	 * @return the next record or null if there are no more records
+	 * @throws JsonParseException
+	 *             if the JSON data is malformed or does not adhere to the
+	 *             expected structure
+	 */
+	public HandleReference next() throws IOException, HandleException {
+		if (finished)
+			return null;
+		if (!started) {
+			started = true;
+			JsonToken baseEle = json.nextToken();
+			if (baseEle == null) {
+				throw new JsonParseException(
+						"JSON format error - no base element found / empty content in request!",
+						json.getCurrentLocation());
+			}
+			if (baseEle.equals(JsonToken.START_ARRAY)) {
+				// array-based JSON. Will contain only one Handle with multiple
+				// values.
+				finished = true;
+				HandleReference handleref = new HandleReference("");
+				readValues(handleref);
+				return handleref;
+			} else if (baseEle.equals(JsonToken.START_OBJECT)) {
+				// object-based JSON. This is what EPIC API uses.
+				objectBased = true;
+			} else
+				throw new JsonParseException(
+						"Base JSON element must be an Array or an Object!",
+						json.getCurrentLocation());
+		}
+		if (objectBased) {
+			JsonToken token = json.nextToken();
+			if (JsonToken.FIELD_NAME.equals(token)) {
+				// field name is the Handle name, value is its value array
+				String handle = json.getCurrentName();
+				if (!JsonToken.START_ARRAY.equals(json.nextToken()))
+					throw new JsonParseException(
+							"JSON format error - expected array of values for Handle "
+									+ handle, json.getCurrentLocation());
+				HandleReference handleref = new HandleReference(handle);
+				readValues(handleref);
+				return handleref;
+			} else if (!JsonToken.END_OBJECT.equals(token))
+				throw new JsonParseException(
+						"JSON format error - expected Handle name",
+						json.getCurrentLocation());
+		}
+		finished = true;
+		return null;
+	}
+
+	public void close() throws IOException {
+		json.close();
+	}
+
+	/**
+	 * Maps a field name to one of the FIELD_ constants. Field names are
+	 * matched case-insensitively; the common lower-case spelling is resolved
+	 * by reference comparison against the interned name.
+	 * 
+	 * @return the matching constant or the name itself if it is unknown
+	 */
+	private static String canonicalFieldName(String name) {
+		if ((name == FIELD_IDX) || (name == FIELD_TYPE)
+				|| (name == FIELD_DATA))
+			return name;
+		if (name.equalsIgnoreCase(FIELD_IDX))
+			return FIELD_IDX;
+		if (name.equalsIgnoreCase(FIELD_TYPE))
+			return FIELD_TYPE;
+		if (name.equalsIgnoreCase(FIELD_DATA))
+			return FIELD_DATA;
+		return name;
+	}
+
+	/**
+	 * Reads an array of Handle values into the given record. The parser must
+	 * be positioned on the START_ARRAY token; afterwards it is positioned on
+	 * the matching END_ARRAY.
+	 */
+	private void readValues(HandleReference handleref) throws IOException,
+			HandleException {
+		// Iterate all elements of the array.
+		JsonToken ele = json.nextToken();
+		while (!JsonToken.END_ARRAY.equals(ele)) {
+			if (JsonToken.START_OBJECT.equals(ele)) {
+				// read fields: index, type, data
+				int index = 0;
+				String type = null;
+				String data = null;
+				JsonToken field = json.nextToken();
+				while (!JsonToken.END_OBJECT.equals(field)) {
+					if (!JsonToken.FIELD_NAME.equals(field))
+						throw new JsonParseException(
+								"JSON format error - expected field name",
+								json.getCurrentLocation());
+					String fieldName = canonicalFieldName(json
+							.getCurrentName());
+					json.nextToken();
+					if (fieldName == FIELD_IDX) {
+						index = json.getIntValue();
+					} else if (fieldName == FIELD_TYPE) {
+						type = json.getText();
+					} else if (fieldName == FIELD_DATA) {
+						// decode base64 later.. for now, we save text
+						data = json.getText();
+					} else
+						throw new JsonParseException(
+								"Invalid/unexpected field name: " + fieldName,
+								json.getCurrentLocation());
+					field = json.nextToken();
+				}
+				// check read values
+				if ((type == null) || (data == null))
+					throw new JsonParseException(
+							"JSON format error - must specify all of index, type and data",
+							json.getCurrentLocation());
+				if (index < 0)
+					throw new JsonParseException("Illegal index value ("
+							+ index + ") - must be positive",
+							json.getCurrentLocation());
+				// values are ok; now assign HandleValue
+				handleref.addValue(hsAdapter.createHandleValue(index, type,
+						data));
+			} else
+				throw new JsonParseException(
+						"JSON format error - expected start of an object",
+						json.getCurrentLocation());
+			ele = json.nextToken();
+		}
+	}
+
+}
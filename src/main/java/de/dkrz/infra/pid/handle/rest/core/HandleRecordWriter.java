@@ -0,0 +1,76 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.io.IOException;
+
+import net.handle.hdllib.HandleValue;
+import net.handle.hdllib.ValueReference;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes Handle records as JSON directly from HandleValue instances. Produces
+ * the same representation as marshalling a {@link HandleReference} with its
+ * {@link HandleValueWrapper}s, but without reflection and intermediate
+ * objects.
+ */
+public class HandleRecordWriter {
+
+	private HandleRecordWriter() {
+	}
+
+	/**
+	 * Writes a Handle record as a JSON object with the fields "handle" and
+	 * "values", taking the values straight from the reference's array.
+	 */
+	public static void writeRecord(JsonGenerator json, HandleReference handleref)
+			throws IOException {
+		writeRecord(json, handleref.getHandle(), handleref.getHandleValues());
+	}
+
+	/**
+	 * Writes a Handle record as a JSON object with the fields "handle" and
+	 * "values".
+	 */
+	public static void writeRecord(JsonGenerator json, String handle,
+			HandleValue[] values) throws IOException {
+		json.writeStartObject();
+		json.writeStringField("handle", handle);
+		json.writeArrayFieldStart("values");
+		for (HandleValue hv : values) {
+			writeValue(json, hv);
+		}
+		json.writeEndArray();
+		json.writeEndObject();
+	}
+
+	/**
+	 * Writes a single Handle value as a JSON object.
+	 */
+	public static void writeValue(JsonGenerator json, HandleValue hv)
+			throws IOException {
+		json.writeStartObject();
+		json.writeNumberField("idx", hv.getIndex());
+		json.writeStringField("type", hv.getTypeAsString());
+		json.writeFieldName("data");
+		json.writeBinary(hv.getData());
+		json.writeStringField("parsed_data", hv.getDataAsString());
+		json.writeStringField("timestamp", hv.getTimestampAsString());
+		json.writeNumberField("ttl_type", hv.getTTLType());
+		json.writeNumberField("ttl", hv.getTTL());
+		json.writeStringField("refs", formatReferences(hv.getReferences()));
+		json.writeStringField("privs", hv.getPermissionString());
+		json.writeEndObject();
+	}
+
+	private static String formatReferences(ValueReference[] refs) {
+		if ((refs == null) || (refs.length == 0))
+			return "[]";
+		StringBuilder sb = new StringBuilder();
+		sb.append('[');
+		for (ValueReference ref : refs) {
+			sb.append(ref.toString()).append(", ");
+		}
+		return sb.append(']').toString();
+	}
+
+}
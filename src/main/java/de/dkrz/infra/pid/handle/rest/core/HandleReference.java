@@ -1,8 +1,11 @@
 package de.dkrz.infra.pid.handle.rest.core;
 
 import java.net.URI;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Vector;
+import java.util.List;
+import java.util.TreeSet;
 
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
@@ -29,7 +32,15 @@ public class HandleReference {
 	@XmlTransient
 	protected int[] indexes = new int[0];
 	
-	protected Vector<HandleValueWrapper> values = new Vector<HandleValueWrapper>();
+	@XmlTransient
+	protected String[] types = new String[0];
+	
+	private static final HandleValue[] NO_VALUES = new HandleValue[0];
+
+	// request-confined, so no synchronization needed; only the first
+	// valueCount elements are used
+	protected HandleValue[] values = NO_VALUES;
+	protected int valueCount = 0;
 
 	public HandleReference(String handle, int[] indexes) {
 		this.handle = handle;
@@ -105,6 +116,79 @@ public class HandleReference {
 		return indexes.length;
 	}
 
+	@XmlTransient
+	public String[] getTypes() {
+		return types;
+	}
+
+	public void setTypes(String[] types) {
+		if (types == null)
+			throw new IllegalArgumentException(
+					"'types' parameter must not be null!");
+		this.types = types;
+	}
+
+	/**
+	 * Restricts the reference to the given index values and types, in
+	 * addition to any indexes already selected. Each element may hold a
+	 * comma-separated list. Indexes and types are sorted and duplicates
+	 * removed, so that equal selections always yield equal arrays.
+	 * 
+	 * @param indexList
+	 *            index values as strings, or null
+	 * @param typeList
+	 *            types, or null
+	 * @throws IllegalArgumentException
+	 *             if an index is not a non-negative number
+	 */
+	public void select(List<String> indexList, List<String> typeList) {
+		if ((indexList != null) && !indexList.isEmpty()) {
+			TreeSet<Integer> selected = new TreeSet<Integer>();
+			for (int i : indexes)
+				selected.add(i);
+			for (String s : indexList) {
+				for (String subs : s.split(",")) {
+					subs = subs.trim();
+					if (subs.length() == 0)
+						continue;
+					int index;
+					try {
+						index = Integer.parseInt(subs);
+					} catch (NumberFormatException exc) {
+						throw new IllegalArgumentException(
+								"Invalid handle index: " + subs);
+					}
+					if (index < 0)
+						throw new IllegalArgumentException(
+								"Invalid handle index: " + subs);
+					selected.add(index);
+				}
+			}
+			indexes = new int[selected.size()];
+			int n = 0;
+			for (int i : selected)
+				indexes[n++] = i;
+		}
+		if ((typeList != null) && !typeList.isEmpty()) {
+			TreeSet<String> selected = new TreeSet<String>(Arrays.asList(types));
+			for (String s : typeList) {
+				for (String subs : s.split(",")) {
+					subs = subs.trim();
+					if (subs.length() > 0)
+						selected.add(subs);
+				}
+			}
+			types = selected.toArray(new String[selected.size()]);
+		}
+	}
+
+	/**
+	 * @return true if the reference is restricted to some indexes or types
+	 */
+	public boolean hasSelection() {
+		return (indexes.length > 0) || (types.length > 0);
+	}
+
 	public void setIndexes(int[] indexes) {
 		if (indexes == null)
 			throw new IllegalArgumentException(
@@ -134,15 +218,57 @@ public class HandleReference {
 	}
 	
 	public void addValues(Collection<? extends HandleValue> values) {
-		for (HandleValue hv: values)
-			this.values.add(new HandleValueWrapper(hv));
+		ensureCapacity(valueCount + values.size());
+		for (HandleValue hv : values)
+			this.values[valueCount++] = hv;
 	}
 
+	/**
+	 * @return a live view of the values for JAXB/JSON binding; elements added
+	 *         to it are added to this reference
+	 */
 	@XmlElement(name="values")
-	public Vector<HandleValueWrapper> getValues() {
+	public List<HandleValueWrapper> getValues() {
+		return new AbstractList<HandleValueWrapper>() {
+			@Override
+			public HandleValueWrapper get(int i) {
+				if (i >= valueCount)
+					throw new IndexOutOfBoundsException("Index: " + i);
+				return new HandleValueWrapper(values[i]);
+			}
+
+			@Override
+			public int size() {
+				return valueCount;
+			}
+
+			@Override
+			public void add(int i, HandleValueWrapper element) {
+				if (i != valueCount)
+					throw new UnsupportedOperationException();
+				addValue(element.getHandleValue());
+			}
+		};
+	}
+
+	/**
+	 * Returns the values of this reference, ready to be handed to an
+	 * HSAdapter. This is the backing array, not a copy.
+	 */
+	@XmlTransient
+	@JsonIgnore
+	public HandleValue[] getHandleValues() {
+		if (values.length != valueCount)
+			values = Arrays.copyOf(values, valueCount);
 		return values;
 	}
 
+	private void ensureCapacity(int capacity) {
+		if (capacity > values.length)
+			values = Arrays.copyOf(values,
+					Math.max(capacity, 2 * values.length));
+	}
+
 	public boolean hasProperName() {
 		return handle.contains("/");
 	}
@@ -151,9 +277,25 @@ public class HandleReference {
 		return (handle == null) || (handle.length() == 0); 
 	}
 
+	public void addValue(HandleValue handleValue) {
+		ensureCapacity(valueCount + 1);
+		values[valueCount++] = handleValue;
+	}
+
+	/**
+	 * Adds the given values. If the reference has no values yet, the array
+	 * is taken over as it is, so it must not be modified afterwards.
+	 */
 	public void addValues(HandleValue[] handleValues) {
-		for (HandleValue hv: handleValues) 
-			values.add(new HandleValueWrapper(hv));
+		if (valueCount == 0) {
+			values = handleValues;
+			valueCount = handleValues.length;
+			return;
+		}
+		ensureCapacity(valueCount + handleValues.length);
+		System.arraycopy(handleValues, 0, values, valueCount,
+				handleValues.length);
+		valueCount += handleValues.length;
 	}
 
 	public URI buildUri(UriInfo uriInfo) {
@@ -0,0 +1,72 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+/**
+ * Outcome of resolving a single Handle as part of a bulk operation.
+ */
+public class HandleResolveResult {
+
+	private final String handle;
+	private final HandleValue[] values;
+	private final int statusCode;
+	private final String reason;
+
+	private HandleResolveResult(String handle, HandleValue[] values,
+			int statusCode, String reason) {
+		this.handle = handle;
+		this.values = values;
+		this.statusCode = statusCode;
+		this.reason = reason;
+	}
+
+	public static HandleResolveResult resolved(String handle,
+			HandleValue[] values) {
+		return new HandleResolveResult(handle, values, 200, null);
+	}
+
+	/**
+	 * @param statusCode
+	 *            the HTTP status code a single request for this Handle would
+	 *            have been answered with
+	 * @param reason
+	 *            human-readable reason for the failure
+	 */
+	public static HandleResolveResult failed(String handle, int statusCode,
+			String reason) {
+		return new HandleResolveResult(handle, null, statusCode, reason);
+	}
+
+	public static HandleResolveResult failed(String handle,
+			HandleException exc) {
+		if (exc.getCode() == HandleException.HANDLE_DOES_NOT_EXIST)
+			return failed(handle, 404, "Handle does not exist");
+		return failed(handle, HandleWriteResult.statusCode(exc),
+				exc.toString());
+	}
+
+	public String getHandle() {
+		return handle;
+	}
+
+	/**
+	 * @return the resolved values or null if resolution failed
+	 */
+	public HandleValue[] getValues() {
+		return values;
+	}
+
+	public boolean isResolved() {
+		return values != null;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+}
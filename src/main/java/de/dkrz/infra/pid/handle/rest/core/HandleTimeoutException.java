@@ -0,0 +1,18 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import net.handle.hdllib.HandleException;
+
+/**
+ * Thrown when a Handle System call did not complete within the configured
+ * time. The call may still take effect on the server. The subclass
+ * {@link HandleBackendBusyException} signals a call that was never started.
+ */
+public class HandleTimeoutException extends HandleException {
+
+	private static final long serialVersionUID = 1L;
+
+	public HandleTimeoutException(String message) {
+		super(HandleException.INTERNAL_ERROR, message);
+	}
+
+}
@@ -0,0 +1,127 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import net.handle.hdllib.HandleException;
+
+/**
+ * Outcome of writing a single Handle record as part of a bulk operation.
+ */
+public class HandleWriteResult {
+
+	public enum Status {
+		CREATED, OVERWRITTEN, DELETED, FAILED
+	}
+
+	private final String handle;
+	private final Status status;
+	private final int statusCode;
+	private final String reason;
+	private final int record;
+
+	private HandleWriteResult(String handle, Status status, int statusCode,
+			String reason, int record) {
+		this.handle = handle;
+		this.status = status;
+		this.statusCode = statusCode;
+		this.reason = reason;
+		this.record = record;
+	}
+
+	public static HandleWriteResult created(String handle) {
+		return new HandleWriteResult(handle, Status.CREATED, 201, null, -1);
+	}
+
+	public static HandleWriteResult overwritten(String handle) {
+		return new HandleWriteResult(handle, Status.OVERWRITTEN, 204, null,
+				-1);
+	}
+
+	public static HandleWriteResult deleted(String handle) {
+		return new HandleWriteResult(handle, Status.DELETED, 204, null, -1);
+	}
+
+	/**
+	 * @param handle
+	 *            Handle name, may be null or empty if the record did not
+	 *            specify one and none could be generated
+	 * @param statusCode
+	 *            the HTTP status code a single request for this record would
+	 *            have been answered with
+	 * @param reason
+	 *            human-readable reason for the failure
+	 */
+	public static HandleWriteResult failed(String handle, int statusCode,
+			String reason) {
+		return new HandleWriteResult(handle, Status.FAILED, statusCode, reason,
+				-1);
+	}
+
+	public static HandleWriteResult failed(String handle, HandleException exc) {
+		return failed(handle, statusCode(exc), exc.toString());
+	}
+
+	/**
+	 * @return the HTTP status code a single request failing with the given
+	 *         exception is answered with
+	 */
+	public static int statusCode(HandleException exc) {
+		if (exc instanceof HandleBackendBusyException)
+			return 503;
+		if (exc instanceof HandleTimeoutException)
+			return 504;
+		switch (exc.getCode()) {
+		case HandleException.HANDLE_DOES_NOT_EXIST:
+			return 404;
+		case HandleException.HANDLE_ALREADY_EXISTS:
+			return 409;
+		case HandleException.INVALID_VALUE:
+			return 400;
+		default:
+			return JournalDrainer.isTransient(exc) ? 503 : 500;
+		}
+	}
+
+	/**
+	 * @param record
+	 *            zero-based position of the record in the request
+	 * @return a copy of this result tagged with the given record position
+	 */
+	public HandleWriteResult forRecord(int record) {
+		return new HandleWriteResult(handle, status, statusCode, reason,
+				record);
+	}
+
+	public String getHandle() {
+		return handle;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	/**
+	 * @return zero-based position of the record in the request or -1 if
+	 *         unknown
+	 */
+	public int getRecord() {
+		return record;
+	}
+
+	public boolean isFailed() {
+		return status == Status.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		return handle + ": " + status
+				+ ((reason != null) ? " (" + reason + ")" : "");
+	}
+
+}
@@ -0,0 +1,82 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+/**
+ * Generates short, non-sequential looking suffixes of 8 base32 characters.
+ * 
+ * Each suffix encodes a number from a {@link BlockSequence}, scrambled by a
+ * keyed permutation of the 40 bit number space (a four-round Feistel network),
+ * so suffixes are unique as long as the sequence is, and the key makes them
+ * hard to predict. Up to 2^40 suffixes can be generated. As with
+ * {@link SequentialGenerator}, a node name can precede the suffix so that
+ * several service instances, each with its own sequence, can share a prefix.
+ */
+public class HashidGenerator implements IdentifierNameGenerator {
+
+	/**
+	 * Crockford's base32 alphabet, avoiding I, L, O and U.
+	 */
+	private static final char[] ALPHABET = "0123456789abcdefghjkmnpqrstvwxyz"
+			.toCharArray();
+
+	/**
+	 * Key used unless one is configured. Deployments should set their own.
+	 */
+	public static final long DEFAULT_KEY = 0x5deece66dL;
+
+	private static final int HALF_BITS = 20;
+	private static final int HALF_MASK = (1 << HALF_BITS) - 1;
+	private static final int ROUNDS = 4;
+	private static final int LENGTH = 8;
+
+	private final BlockSequence sequence;
+	private final String node;
+	private final int[] roundKeys = new int[ROUNDS];
+
+	/**
+	 * @param sequence
+	 *            source of the numbers
+	 * @param key
+	 *            secret determining the permutation; must stay the same for
+	 *            all suffixes generated under a prefix
+	 * @param node
+	 *            name of this service instance, or empty string
+	 */
+	public HashidGenerator(BlockSequence sequence, long key, String node) {
+		this.sequence = sequence;
+		this.node = (node.length() > 0) ? node + "-" : "";
+		for (int i = 0; i < ROUNDS; i++) {
+			key = key * 6364136223846793005L + 1442695040888963407L;
+			roundKeys[i] = (int) (key >>> 32);
+		}
+	}
+
+	public String generateName(String prefix) {
+		long n = sequence.next();
+		if ((n >>> (2 * HALF_BITS)) != 0)
+			throw new IllegalStateException("Hashid number space exhausted");
+		long p = permute(n);
+		char[] suffix = new char[LENGTH];
+		for (int i = LENGTH - 1; i >= 0; i--) {
+			suffix[i] = ALPHABET[(int) (p & 31)];
+			p >>>= 5;
+		}
+		return prefix + "/" + node + new String(suffix);
+	}
+
+	long permute(long n) {
+		int left = (int) (n >>> HALF_BITS) & HALF_MASK;
+		int right = (int) n & HALF_MASK;
+		for (int i = 0; i < ROUNDS; i++) {
+			int tmp = right;
+			right = left ^ (round(right, roundKeys[i]) & HALF_MASK);
+			left = tmp;
+		}
+		return ((long) left << HALF_BITS) | right;
+	}
+
+	private static int round(int value, int key) {
+		int x = (value ^ key) * 0x9e3779b1;
+		return x ^ (x >>> 15);
+	}
+
+}
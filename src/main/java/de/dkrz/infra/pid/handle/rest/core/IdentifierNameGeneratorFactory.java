@@ -1,12 +1,22 @@
 package de.dkrz.infra.pid.handle.rest.core;
 
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
-
+/**
+ * Looks up the identifier name generators registered with the application
+ * context by the names accepted in the "generator" query parameter: "uuid",
+ * "sequential" and "hashid".
+ */
 public class IdentifierNameGeneratorFactory {
 
+	/**
+	 * @throws IllegalArgumentException
+	 *             if there is no generator with the given name
+	 */
 	public static IdentifierNameGenerator fromString(String name) {
-		// TODO
-		throw new NotImplementedException();
+		IdentifierNameGenerator generator = ApplicationContext.getInstance()
+				.getIdentifierNameGenerator(name);
+		if (generator == null)
+			throw new IllegalArgumentException("Unknown generator: " + name);
+		return generator;
 	}
 	
 }
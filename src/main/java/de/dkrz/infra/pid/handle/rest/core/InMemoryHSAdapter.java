@@ -0,0 +1,332 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+import net.handle.hdllib.ValueReference;
+
+/**
+ * Thread-safe implementation of the Handle API main interface on Java data
+ * structures, standing in for a Handle server in tests, benchmarks and load
+ * tests.
+ *
+ * Records are held in a concurrent map; creating a Handle is an atomic
+ * put-if-absent. The values of a record are an immutable snapshot, so
+ * resolutions never block. Writes to a record are serialized on the record
+ * and replace the snapshot as a whole, so that readers see either all or none
+ * of the changes of a write.
+ *
+ * Optionally, every call is delayed by a fixed latency and fails with a given
+ * probability, to mimic a remote Handle server.
+ */
+public class InMemoryHSAdapter implements HSAdapter, BatchHSAdapter {
+
+	/**
+	 * A Handle record. Guarded by itself for writes.
+	 */
+	private static class Record {
+		/**
+		 * Values sorted by index; never modified once published.
+		 */
+		volatile HandleValue[] values;
+		/**
+		 * Set when the record was deleted, so that writers that looked it up
+		 * before fail instead of writing to a stale record.
+		 */
+		boolean deleted;
+
+		Record(HandleValue[] values) {
+			this.values = values;
+		}
+	}
+
+	private static final HandleValue[] NO_VALUES = new HandleValue[0];
+
+	private final ConcurrentMap<String, Record> storage = new ConcurrentHashMap<String, Record>();
+	private final long latencyMillis;
+	private final double errorRate;
+
+	public InMemoryHSAdapter() {
+		this(0, 0);
+	}
+
+	/**
+	 * @param latencyMillis
+	 *            delay of every call that reaches the store
+	 * @param errorRate
+	 *            probability (0 to 1) with which such a call fails with a
+	 *            transient error instead
+	 */
+	public InMemoryHSAdapter(long latencyMillis, double errorRate) {
+		if ((latencyMillis < 0) || (errorRate < 0) || (errorRate > 1))
+			throw new IllegalArgumentException(
+					"Invalid latency or error rate!");
+		this.latencyMillis = latencyMillis;
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * @return number of Handles in the store
+	 */
+	public int size() {
+		return storage.size();
+	}
+
+	private void simulateServer() throws HandleException {
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw new HandleException(
+						HandleException.CANNOT_CONNECT_TO_SERVER,
+						"Interrupted");
+			}
+		}
+		if ((errorRate > 0)
+				&& (ThreadLocalRandom.current().nextDouble() < errorRate))
+			throw new HandleException(HandleException.SERVER_ERROR,
+					"Injected failure");
+	}
+
+	private Record getRecord(String handle) throws HandleException {
+		Record record = storage.get(handle);
+		if (record == null)
+			throw new HandleException(HandleException.HANDLE_DOES_NOT_EXIST);
+		return record;
+	}
+
+	/**
+	 * Replaces the values of a record with the given ones, keyed by index.
+	 */
+	private static void publish(Record record, Map<Integer, HandleValue> values) {
+		record.values = values.values().toArray(new HandleValue[values.size()]);
+	}
+
+	private static Map<Integer, HandleValue> toMap(HandleValue[] values) {
+		Map<Integer, HandleValue> map = new TreeMap<Integer, HandleValue>();
+		for (HandleValue hv : values)
+			map.put(hv.getIndex(), hv);
+		return map;
+	}
+
+	public void addHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		simulateServer();
+		Record record = getRecord(handle);
+		synchronized (record) {
+			if (record.deleted)
+				throw new HandleException(HandleException.HANDLE_DOES_NOT_EXIST);
+			Map<Integer, HandleValue> handlerecord = toMap(record.values);
+			for (HandleValue hv : values) {
+				if (handlerecord.containsKey(hv.getIndex()))
+					throw new HandleException(HandleException.INVALID_VALUE);
+				handlerecord.put(hv.getIndex(), duplicateAndFix(hv));
+			}
+			publish(record, handlerecord);
+		}
+	}
+
+	public HandleValue createAdminValue(String adminHandle, int keyIndex,
+			int index) throws HandleException {
+		// somewhat quick and dirty - the proper data would be different, but
+		// it is not interpreted here
+		return new HandleValue(index, "HS_ADMIN".getBytes(),
+				adminHandle.getBytes(), (byte) 0, 86400, now(),
+				new ValueReference[0], true, true, true, false);
+	}
+
+	public void createHandle(String handle, HandleValue[] values)
+			throws HandleException {
+		simulateServer();
+		Map<Integer, HandleValue> handlerecord = new TreeMap<Integer, HandleValue>();
+		for (HandleValue hv : values)
+			handlerecord.put(hv.getIndex(), duplicateAndFix(hv));
+		Record record = new Record(NO_VALUES);
+		publish(record, handlerecord);
+		if (storage.putIfAbsent(handle, record) != null)
+			throw new HandleException(HandleException.HANDLE_ALREADY_EXISTS);
+	}
+
+	public HandleValue createHandleValue(int index, String type, String data)
+			throws HandleException {
+		return new HandleValue(index, type.getBytes(), data.getBytes(),
+				(byte) 0, 86400, now(), new ValueReference[0], true, true,
+				true, false);
+	}
+
+	private static int now() {
+		return (int) (System.currentTimeMillis() / 1000);
+	}
+
+	public void deleteHandle(String handle) throws HandleException {
+		simulateServer();
+		Record record = getRecord(handle);
+		synchronized (record) {
+			if (record.deleted)
+				throw new HandleException(HandleException.HANDLE_DOES_NOT_EXIST);
+			record.deleted = true;
+			storage.remove(handle, record);
+		}
+	}
+
+	public void deleteHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		simulateServer();
+		Record record = getRecord(handle);
+		synchronized (record) {
+			if (record.deleted)
+				throw new HandleException(HandleException.HANDLE_DOES_NOT_EXIST);
+			Map<Integer, HandleValue> handlerecord = toMap(record.values);
+			for (HandleValue hv : values)
+				handlerecord.remove(hv.getIndex());
+			publish(record, handlerecord);
+		}
+	}
+
+	public HandleValue[] resolveHandle(String handle, String[] types,
+			int[] indexes) throws HandleException {
+		simulateServer();
+		HandleValue[] values = getRecord(handle).values;
+		boolean noTypes = (types == null) || (types.length == 0);
+		boolean noIndexes = (indexes == null) || (indexes.length == 0);
+		List<HandleValue> result = new ArrayList<HandleValue>(values.length);
+		for (HandleValue hv : values) {
+			// as in the Handle protocol, a value is returned if it matches any
+			// of the given indexes or types
+			if ((noTypes && noIndexes) || isSelected(hv, types, indexes))
+				result.add(hv.duplicate());
+		}
+		return result.toArray(new HandleValue[result.size()]);
+	}
+
+	private static boolean isSelected(HandleValue hv, String[] types,
+			int[] indexes) {
+		if (indexes != null) {
+			for (int index : indexes) {
+				if (hv.getIndex() == index)
+					return true;
+			}
+		}
+		if (types != null) {
+			String type = hv.getTypeAsString();
+			for (String t : types) {
+				// types match case-insensitively, and a type also selects its
+				// subtypes ("URL" selects "URL.mirror")
+				if (type.equalsIgnoreCase(t)
+						|| type.toUpperCase().startsWith(t.toUpperCase() + "."))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	public void setTcpTimeout(int newTcpTimeout) {
+		return;
+	}
+
+	public int getTcpTimeout() {
+		return 0;
+	}
+
+	public void setUseUDP(boolean useUDP) {
+		return;
+	}
+
+	public void updateHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		simulateServer();
+		Record record = getRecord(handle);
+		synchronized (record) {
+			if (record.deleted)
+				throw new HandleException(HandleException.HANDLE_DOES_NOT_EXIST);
+			Map<Integer, HandleValue> handlerecord = toMap(record.values);
+			for (HandleValue hv : values)
+				handlerecord.put(hv.getIndex(), duplicateAndFix(hv));
+			publish(record, handlerecord);
+		}
+	}
+
+	private static HandleValue duplicateAndFix(HandleValue hv) {
+		HandleValue hvDuplicate = hv.duplicate();
+		if (hvDuplicate.getReferences() == null) {
+			ValueReference[] refs = new ValueReference[0];
+			hvDuplicate.setReferences(refs);
+		}
+		return hvDuplicate;
+	}
+
+	public List<HandleResolveResult> resolveAll(List<HandleReference> handles) {
+		List<HandleResolveResult> results = new ArrayList<HandleResolveResult>(
+				handles.size());
+		for (HandleReference handleref : handles) {
+			try {
+				results.add(HandleResolveResult.resolved(handleref.getHandle(),
+						resolveHandle(handleref.getHandle(),
+								handleref.getTypes(), handleref.getIndexes())));
+			} catch (HandleException exc) {
+				results.add(HandleResolveResult.failed(handleref.getHandle(),
+						exc));
+			}
+		}
+		return results;
+	}
+
+	public List<HandleWriteResult> createAll(List<HandleReference> records) {
+		List<HandleWriteResult> results = new ArrayList<HandleWriteResult>(
+				records.size());
+		for (HandleReference record : records) {
+			try {
+				createHandle(record.getHandle(), record.getHandleValues());
+				results.add(HandleWriteResult.created(record.getHandle())
+						.forRecord(results.size()));
+			} catch (HandleException exc) {
+				results.add(HandleWriteResult.failed(record.getHandle(), exc)
+						.forRecord(results.size()));
+			}
+		}
+		return results;
+	}
+
+	public List<HandleWriteResult> updateAll(List<HandleReference> records) {
+		List<HandleWriteResult> results = new ArrayList<HandleWriteResult>(
+				records.size());
+		for (HandleReference record : records) {
+			try {
+				updateHandleValues(record.getHandle(),
+						record.getHandleValues());
+				results.add(HandleWriteResult.overwritten(record.getHandle())
+						.forRecord(results.size()));
+			} catch (HandleException exc) {
+				results.add(HandleWriteResult.failed(record.getHandle(), exc)
+						.forRecord(results.size()));
+			}
+		}
+		return results;
+	}
+
+	public List<HandleWriteResult> deleteAll(List<String> handles) {
+		List<HandleWriteResult> results = new ArrayList<HandleWriteResult>(
+				handles.size());
+		for (String handle : handles) {
+			try {
+				deleteHandle(handle);
+				results.add(HandleWriteResult.deleted(handle).forRecord(
+						results.size()));
+			} catch (HandleException exc) {
+				results.add(HandleWriteResult.failed(handle, exc).forRecord(
+						results.size()));
+			}
+		}
+		return results;
+	}
+
+}
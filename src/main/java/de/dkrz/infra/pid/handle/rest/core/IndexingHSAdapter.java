@@ -0,0 +1,50 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+/**
+ * HSAdapter decorator that records created and deleted Handles in a
+ * {@link HandleNameIndex}.
+ */
+public class IndexingHSAdapter extends ForwardingHSAdapter {
+
+	private final HandleNameIndex index;
+
+	public IndexingHSAdapter(HSAdapter delegate, HandleNameIndex index) {
+		super(delegate);
+		this.index = index;
+	}
+
+	public HandleNameIndex getIndex() {
+		return index;
+	}
+
+	@Override
+	public void createHandle(String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			delegate.createHandle(handle, values);
+		} catch (HandleException exc) {
+			// an existing Handle may predate the index
+			if (exc.getCode() == HandleException.HANDLE_ALREADY_EXISTS)
+				index.add(handle);
+			throw exc;
+		}
+		index.add(handle);
+	}
+
+	@Override
+	public void deleteHandle(String handle) throws HandleException {
+		try {
+			delegate.deleteHandle(handle);
+		} catch (HandleException exc) {
+			if (exc.getCode() == HandleException.HANDLE_DOES_NOT_EXIST)
+				index.remove(handle);
+			throw exc;
+		}
+		index.remove(handle);
+	}
+
+}
@@ -0,0 +1,169 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+/**
+ * HSAdapter decorator that records the latency of every call in a histogram
+ * per method and counts failed calls.
+ */
+public class InstrumentedHSAdapter extends ForwardingHSAdapter {
+
+	public static final String LATENCY_METRIC = "handle_rest_backend_seconds";
+	public static final String ERROR_METRIC = "handle_rest_backend_errors_total";
+
+	private final Timer resolveHandle;
+	private final Timer createHandle;
+	private final Timer addHandleValues;
+	private final Timer updateHandleValues;
+	private final Timer deleteHandleValues;
+	private final Timer deleteHandle;
+	private final Timer createAdminValue;
+	private final Timer createHandleValue;
+
+	public InstrumentedHSAdapter(HSAdapter delegate, MetricsRegistry metrics) {
+		super(delegate);
+		this.resolveHandle = new Timer(metrics, "resolveHandle");
+		this.createHandle = new Timer(metrics, "createHandle");
+		this.addHandleValues = new Timer(metrics, "addHandleValues");
+		this.updateHandleValues = new Timer(metrics, "updateHandleValues");
+		this.deleteHandleValues = new Timer(metrics, "deleteHandleValues");
+		this.deleteHandle = new Timer(metrics, "deleteHandle");
+		this.createAdminValue = new Timer(metrics, "createAdminValue");
+		this.createHandleValue = new Timer(metrics, "createHandleValue");
+	}
+
+	@Override
+	public HandleValue[] resolveHandle(String handle, String[] types,
+			int[] indexes) throws HandleException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			HandleValue[] result = delegate.resolveHandle(handle, types,
+					indexes);
+			ok = true;
+			return result;
+		} finally {
+			resolveHandle.stop(start, ok);
+		}
+	}
+
+	@Override
+	public void createHandle(String handle, HandleValue[] values)
+			throws HandleException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.createHandle(handle, values);
+			ok = true;
+		} finally {
+			createHandle.stop(start, ok);
+		}
+	}
+
+	@Override
+	public void addHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.addHandleValues(handle, values);
+			ok = true;
+		} finally {
+			addHandleValues.stop(start, ok);
+		}
+	}
+
+	@Override
+	public void updateHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.updateHandleValues(handle, values);
+			ok = true;
+		} finally {
+			updateHandleValues.stop(start, ok);
+		}
+	}
+
+	@Override
+	public void deleteHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.deleteHandleValues(handle, values);
+			ok = true;
+		} finally {
+			deleteHandleValues.stop(start, ok);
+		}
+	}
+
+	@Override
+	public void deleteHandle(String handle) throws HandleException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.deleteHandle(handle);
+			ok = true;
+		} finally {
+			deleteHandle.stop(start, ok);
+		}
+	}
+
+	@Override
+	public HandleValue createAdminValue(String adminHandle, int keyIndex,
+			int index) throws HandleException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			HandleValue result = delegate.createAdminValue(adminHandle,
+					keyIndex, index);
+			ok = true;
+			return result;
+		} finally {
+			createAdminValue.stop(start, ok);
+		}
+	}
+
+	@Override
+	public HandleValue createHandleValue(int index, String type, String data)
+			throws HandleException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			HandleValue result = delegate.createHandleValue(index, type, data);
+			ok = true;
+			return result;
+		} finally {
+			createHandleValue.stop(start, ok);
+		}
+	}
+
+	/**
+	 * Latency histogram and error counter of one method.
+	 */
+	private static class Timer {
+		final LatencyHistogram latency;
+		final AtomicLong errors;
+
+		Timer(MetricsRegistry metrics, String method) {
+			String labels = "method=\"" + method + "\"";
+			this.latency = metrics.histogram(LATENCY_METRIC,
+					"Latency of Handle System calls", labels);
+			this.errors = metrics.counter(ERROR_METRIC,
+					"Failed Handle System calls", labels);
+		}
+
+		void stop(long start, boolean ok) {
+			latency.recordSince(start);
+			if (!ok)
+				errors.incrementAndGet();
+		}
+	}
+
+}
@@ -0,0 +1,332 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registers the records of a {@link RegistrationJournal} with the Handle
+ * System in the background.
+ * 
+ * Records are taken from the journal in batches, and each batch is created
+ * at once through a {@link PipeliningBatchHSAdapter}. Records that could not
+ * be created are then registered one by one, concurrently: a Handle that
+ * exists already is overwritten, unless the record's name was
+ * generated by the service: such a record is only ever created, and if its
+ * name is taken by another Handle, it is dead-lettered. Failures to reach the
+ * server (e.g. the server being unreachable or timing out) are retried with
+ * exponential backoff until they succeed, so a batch is only acknowledged once
+ * all its records are registered. Other transient failures, which may as well
+ * be caused by the record itself, are retried {@link #MAX_ATTEMPTS} times.
+ * Records failing permanently are appended to a dead-letter file "failed" in
+ * the journal directory instead. If a batch cannot be processed or
+ * acknowledged, it is retried after a backoff; registering a record twice is
+ * harmless.
+ */
+public class JournalDrainer implements Runnable {
+
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/**
+	 * Number of attempts for a record failing with a transient error other
+	 * than a failure to reach the server.
+	 */
+	public static final int MAX_ATTEMPTS = 5;
+
+	private static final long MIN_BACKOFF = 100;
+	private static final long MAX_BACKOFF = 60000;
+	private static final long STOP_TIMEOUT = 10000;
+
+	private static final Logger logger = Logger
+			.getLogger(JournalDrainer.class);
+
+	private final RegistrationJournal journal;
+	private final HSAdapter hsAdapter;
+	private final ApplicationContext context;
+	private final int batchSize;
+	private final ExecutorService executor;
+	private final BatchHSAdapter batchAdapter;
+	private final Thread thread;
+	private volatile boolean stopped;
+
+	private final AtomicLong registered = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param concurrency
+	 *            number of records of a batch written concurrently
+	 */
+	public JournalDrainer(RegistrationJournal journal, HSAdapter hsAdapter,
+			ApplicationContext context, int batchSize, int concurrency) {
+		this.journal = journal;
+		this.hsAdapter = hsAdapter;
+		this.context = context;
+		this.batchSize = batchSize;
+		this.executor = Executors.newFixedThreadPool(concurrency,
+				new NamedThreadFactory("handle-rest-drainer"));
+		this.batchAdapter = new PipeliningBatchHSAdapter(hsAdapter, executor,
+				concurrency);
+		this.thread = new NamedThreadFactory("handle-rest-journal")
+				.newThread(this);
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops registering and waits for the drainer thread to finish. Records
+	 * not acknowledged yet are registered again after the next start.
+	 */
+	public void stop() {
+		stopped = true;
+		thread.interrupt();
+		executor.shutdownNow();
+		try {
+			thread.join(STOP_TIMEOUT);
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void run() {
+		List<RegistrationJournal.Entry> batch = null;
+		boolean batchRegistered = false;
+		long backoff = MIN_BACKOFF;
+		while (!stopped) {
+			try {
+				if (batch == null) {
+					batch = journal.read(batchSize, 1000);
+					if (batch.isEmpty()) {
+						batch = null;
+						continue;
+					}
+				}
+				if (!batchRegistered) {
+					registerAll(batch);
+					batchRegistered = true;
+				}
+				journal.acknowledge(batch.get(batch.size() - 1).getEndOffset());
+				batch = null;
+				batchRegistered = false;
+				backoff = MIN_BACKOFF;
+				continue;
+			} catch (InterruptedException exc) {
+				// stopped; unacknowledged records are registered again on
+				// restart
+				break;
+			} catch (ExecutionException exc) {
+				logger.error("Registration task failed; retrying batch",
+						exc.getCause());
+			} catch (IOException exc) {
+				logger.error("Cannot acknowledge journal records; retrying",
+						exc);
+			} catch (RuntimeException exc) {
+				logger.error("Cannot process journal records; retrying", exc);
+			}
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException exc) {
+				break;
+			}
+			backoff = Math.min(2 * backoff, MAX_BACKOFF);
+		}
+	}
+
+	/**
+	 * Creates the records of a batch at once and registers the rest, e.g.
+	 * Handles that exist already or failed transiently, one by one.
+	 */
+	private void registerAll(List<RegistrationJournal.Entry> batch)
+			throws InterruptedException, ExecutionException {
+		List<HandleReference> records = new ArrayList<HandleReference>(
+				batch.size());
+		// the entries of the records, in the same order
+		List<RegistrationJournal.Entry> recorded = new ArrayList<RegistrationJournal.Entry>(
+				batch.size());
+		List<RegistrationJournal.Entry> remaining = new ArrayList<RegistrationJournal.Entry>();
+		for (RegistrationJournal.Entry entry : batch) {
+			HandleReference record = new HandleReference(entry.getHandle());
+			try {
+				record.addValues(context.withAdminValue(entry.getValues()));
+			} catch (HandleException exc) {
+				// the single registration retries or reports it
+				remaining.add(entry);
+				continue;
+			}
+			records.add(record);
+			recorded.add(entry);
+		}
+		List<HandleWriteResult> created = batchAdapter.createAll(records);
+		for (int i = 0; i < created.size(); i++) {
+			if (created.get(i).isFailed())
+				remaining.add(recorded.get(i));
+			else registered.incrementAndGet();
+		}
+		List<Future<?>> results = new ArrayList<Future<?>>(remaining.size());
+		for (final RegistrationJournal.Entry entry : remaining) {
+			results.add(executor.submit(new Callable<Void>() {
+				public Void call() throws InterruptedException {
+					registerWithRetry(entry);
+					return null;
+				}
+			}));
+		}
+		for (Future<?> result : results) {
+			result.get();
+		}
+	}
+
+	private void registerWithRetry(RegistrationJournal.Entry entry)
+			throws InterruptedException {
+		long backoff = MIN_BACKOFF;
+		for (int attempt = 1;; attempt++) {
+			try {
+				if (entry.isGenerated())
+					registerGenerated(hsAdapter, context, entry.getHandle(),
+							entry.getValues());
+				else register(hsAdapter, context, entry.getHandle(),
+						entry.getValues());
+				registered.incrementAndGet();
+				return;
+			} catch (HandleException exc) {
+				if (!isTransient(exc)
+						|| (!isUnreachable(exc) && (attempt >= MAX_ATTEMPTS))) {
+					deadLetter(entry, exc);
+					return;
+				}
+				logger.warn("Retrying registration of " + entry.getHandle()
+						+ ": " + exc);
+			} catch (RuntimeException exc) {
+				deadLetter(entry, exc);
+				return;
+			}
+			retries.incrementAndGet();
+			Thread.sleep(backoff);
+			backoff = Math.min(2 * backoff, MAX_BACKOFF);
+		}
+	}
+
+	/**
+	 * Creates the Handle or, if it exists already, changes it to the given
+	 * values.
+	 */
+	static void register(HSAdapter hsAdapter, ApplicationContext context,
+			String handle, HandleValue[] values) throws HandleException {
+		try {
+			hsAdapter.createHandle(handle, context.withAdminValue(values));
+		} catch (HandleException exc) {
+			if (exc.getCode() != HandleException.HANDLE_ALREADY_EXISTS)
+				throw exc;
+			HandleValue[] hvOrig = hsAdapter.resolveHandle(handle, null, null);
+			HandleRecordDiff.compute(hvOrig, values).apply(hsAdapter, handle);
+		}
+	}
+
+	/**
+	 * Creates a Handle under a generated name. If the Handle exists already
+	 * with the given values, it is taken to be created by an earlier attempt
+	 * for the same record, e.g. one whose acknowledgement was lost.
+	 * 
+	 * @throws HandleException
+	 *             with code HANDLE_ALREADY_EXISTS if another Handle has the
+	 *             name
+	 */
+	static void registerGenerated(HSAdapter hsAdapter,
+			ApplicationContext context, String handle, HandleValue[] values)
+			throws HandleException {
+		try {
+			hsAdapter.createHandle(handle, context.withAdminValue(values));
+		} catch (HandleException exc) {
+			if (exc.getCode() != HandleException.HANDLE_ALREADY_EXISTS)
+				throw exc;
+			HandleValue[] hvOrig = hsAdapter.resolveHandle(handle, null, null);
+			if (!HandleRecordDiff.compute(hvOrig, values).isEmpty())
+				throw new HandleException(
+						HandleException.HANDLE_ALREADY_EXISTS,
+						"Generated name is taken by another Handle");
+		}
+	}
+
+	/**
+	 * @return true if the failure is likely to go away when retried, e.g.
+	 *         because the server could not be reached
+	 */
+	static boolean isTransient(HandleException exc) {
+		switch (exc.getCode()) {
+		case HandleException.CANNOT_CONNECT_TO_SERVER:
+		case HandleException.SERVER_ERROR:
+		case HandleException.INTERNAL_ERROR:
+		case HandleException.SESSION_TIMEOUT:
+		case HandleException.GOT_EXPIRED_MESSAGE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the failure means the server could not be reached or
+	 *         did not answer in time, so it says nothing about the record
+	 */
+	static boolean isUnreachable(HandleException exc) {
+		if (exc instanceof HandleTimeoutException)
+			return true;
+		switch (exc.getCode()) {
+		case HandleException.CANNOT_CONNECT_TO_SERVER:
+		case HandleException.SESSION_TIMEOUT:
+		case HandleException.GOT_EXPIRED_MESSAGE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private synchronized void deadLetter(RegistrationJournal.Entry entry,
+			Exception exc) {
+		failed.incrementAndGet();
+		logger.error("Giving up registration of " + entry.getHandle(), exc);
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(
+					new File(journal.getDirectory(), "failed"), true), "UTF-8");
+			try {
+				writer.write(entry.getEndOffset() + "\t" + entry.getHandle()
+						+ "\t" + exc.toString().replace('\n', ' ') + "\n");
+			} finally {
+				writer.close();
+			}
+		} catch (IOException ioexc) {
+			logger.error("Cannot write dead-letter file", ioexc);
+		}
+	}
+
+	public long getRegistered() {
+		return registered.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+}
@@ -0,0 +1,143 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of latency histograms and counters, exported in the Prometheus
+ * text format. Metrics are looked up once by whoever records them and then
+ * updated without going through the registry again.
+ */
+public class MetricsRegistry {
+
+	/**
+	 * Histogram of request processing phases, labelled with "phase".
+	 */
+	public static final String PHASE_METRIC = "handle_rest_phase_seconds";
+
+	/**
+	 * Quantiles exported for every histogram.
+	 */
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<String, Family>();
+
+	/**
+	 * Returns the latency histogram with the given name and labels, creating
+	 * it if necessary.
+	 * 
+	 * @param labels
+	 *            Prometheus label list without braces, e.g.
+	 *            <code>method="resolveHandle"</code>, or empty string
+	 */
+	public LatencyHistogram histogram(String name, String help, String labels) {
+		return (LatencyHistogram) family(name, help, "summary").get(labels);
+	}
+
+	/**
+	 * Returns the counter with the given name and labels, creating it if
+	 * necessary.
+	 * 
+	 * @see #histogram(String, String, String)
+	 */
+	public AtomicLong counter(String name, String help, String labels) {
+		return (AtomicLong) family(name, help, "counter").get(labels);
+	}
+
+	/**
+	 * Returns the histogram of a request processing phase, e.g. "parse".
+	 */
+	public LatencyHistogram phase(String phase) {
+		return histogram(PHASE_METRIC, "Latency of request processing phases",
+				"phase=\"" + phase + "\"");
+	}
+
+	private Family family(String name, String help, String type) {
+		Family family = families.get(name);
+		if (family == null) {
+			Family newFamily = new Family(help, type);
+			family = families.putIfAbsent(name, newFamily);
+			if (family == null)
+				family = newFamily;
+		}
+		if (!family.type.equals(type))
+			throw new IllegalArgumentException("Metric " + name
+					+ " is already registered as " + family.type);
+		return family;
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text exposition format (version
+	 * 0.0.4). Latencies are exported in seconds.
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		for (Map.Entry<String, Family> entry : new TreeMap<String, Family>(
+				families).entrySet()) {
+			String name = entry.getKey();
+			Family family = entry.getValue();
+			writer.write("# HELP " + name + " " + family.help + "\n");
+			writer.write("# TYPE " + name + " " + family.type + "\n");
+			for (Map.Entry<String, Object> metric : new TreeMap<String, Object>(
+					family.metrics).entrySet()) {
+				String labels = metric.getKey();
+				if (metric.getValue() instanceof AtomicLong) {
+					writeSample(writer, name, labels,
+							Long.toString(((AtomicLong) metric.getValue())
+									.get()));
+					continue;
+				}
+				LatencyHistogram histogram = (LatencyHistogram) metric
+						.getValue();
+				String separator = (labels.length() > 0) ? "," : "";
+				for (double q : QUANTILES) {
+					writeSample(writer, name, labels + separator
+							+ "quantile=\"" + q + "\"",
+							Double.toString(histogram.getQuantileMicros(q) / 1e6));
+				}
+				writeSample(writer, name + "_sum", labels,
+						Double.toString(histogram.getSumNanos() / 1e9));
+				writeSample(writer, name + "_count", labels,
+						Long.toString(histogram.getCount()));
+			}
+		}
+	}
+
+	private static void writeSample(Writer writer, String name, String labels,
+			String value) throws IOException {
+		writer.write(name);
+		if (labels.length() > 0)
+			writer.write("{" + labels + "}");
+		writer.write(" ");
+		writer.write(value);
+		writer.write("\n");
+	}
+
+	private static class Family {
+		final String help;
+		final String type;
+		final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+		Family(String help, String type) {
+			this.help = help;
+			this.type = type;
+		}
+
+		Object get(String labels) {
+			Object metric = metrics.get(labels);
+			if (metric == null) {
+				Object newMetric = type.equals("summary") ? new LatencyHistogram()
+						: new AtomicLong();
+				metric = metrics.putIfAbsent(labels, newMetric);
+				if (metric == null)
+					metric = newMetric;
+			}
+			return metric;
+		}
+	}
+
+}
@@ -0,0 +1,25 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named after the pool they belong to, so that worker
+ * pools show up recognisably in thread dumps and never block JVM shutdown.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+	private final String poolName;
+	private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+	public NamedThreadFactory(String poolName) {
+		this.poolName = poolName;
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, poolName + "-" + threadNumber.getAndIncrement());
+		t.setDaemon(true);
+		return t;
+	}
+
+}
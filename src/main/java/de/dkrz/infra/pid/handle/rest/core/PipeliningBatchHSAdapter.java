@@ -0,0 +1,228 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * BatchHSAdapter on top of a single-Handle adapter. The operations on the
+ * single Handles are issued concurrently on a worker pool, keeping a bounded
+ * number of requests outstanding, so that the latency of the Handle server is
+ * paid once per window instead of once per Handle.
+ */
+public class PipeliningBatchHSAdapter implements BatchHSAdapter {
+
+	/**
+	 * Operation on the Handle at a position of a batch. Failures are reported
+	 * in the result; unexpected exceptions are turned into a result by
+	 * {@link #failed(int, RuntimeException)}.
+	 */
+	private interface Operation<T> {
+		public T apply(int i);
+
+		public T failed(int i, RuntimeException cause);
+	}
+
+	private static final Logger logger = Logger
+			.getLogger(PipeliningBatchHSAdapter.class);
+
+	private final HSAdapter hsAdapter;
+	private final ExecutorService executor;
+	private final int window;
+
+	/**
+	 * @param executor
+	 *            runs the single-Handle operations
+	 * @param window
+	 *            maximum number of operations outstanding at a time
+	 */
+	public PipeliningBatchHSAdapter(HSAdapter hsAdapter,
+			ExecutorService executor, int window) {
+		if (window < 1)
+			throw new IllegalArgumentException("Window must be positive!");
+		this.hsAdapter = hsAdapter;
+		this.executor = executor;
+		this.window = window;
+	}
+
+	public List<HandleResolveResult> resolveAll(
+			final List<HandleReference> handles) {
+		return pipeline(new HandleResolveResult[handles.size()],
+				new Operation<HandleResolveResult>() {
+					public HandleResolveResult apply(int i) {
+						HandleReference handleref = handles.get(i);
+						String handle = handleref.getHandle();
+						try {
+							return HandleResolveResult.resolved(handle,
+									hsAdapter.resolveHandle(handle,
+											handleref.getTypes(),
+											handleref.getIndexes()));
+						} catch (HandleException exc) {
+							return HandleResolveResult.failed(handle, exc);
+						}
+					}
+
+					public HandleResolveResult failed(int i,
+							RuntimeException cause) {
+						return HandleResolveResult.failed(handles.get(i)
+								.getHandle(), statusCode(cause), cause
+								.toString());
+					}
+				});
+	}
+
+	public List<HandleWriteResult> createAll(
+			final List<HandleReference> records) {
+		return pipeline(new HandleWriteResult[records.size()],
+				new WriteOperation(records) {
+					protected HandleWriteResult write(HandleReference record)
+							throws HandleException {
+						hsAdapter.createHandle(record.getHandle(),
+								record.getHandleValues());
+						return HandleWriteResult.created(record.getHandle());
+					}
+				});
+	}
+
+	public List<HandleWriteResult> updateAll(
+			final List<HandleReference> records) {
+		return pipeline(new HandleWriteResult[records.size()],
+				new WriteOperation(records) {
+					protected HandleWriteResult write(HandleReference record)
+							throws HandleException {
+						hsAdapter.updateHandleValues(record.getHandle(),
+								record.getHandleValues());
+						return HandleWriteResult.overwritten(record
+								.getHandle());
+					}
+				});
+	}
+
+	public List<HandleWriteResult> deleteAll(final List<String> handles) {
+		return pipeline(new HandleWriteResult[handles.size()],
+				new Operation<HandleWriteResult>() {
+					public HandleWriteResult apply(int i) {
+						String handle = handles.get(i);
+						try {
+							hsAdapter.deleteHandle(handle);
+							return HandleWriteResult.deleted(handle)
+									.forRecord(i);
+						} catch (HandleException exc) {
+							return HandleWriteResult.failed(handle, exc)
+									.forRecord(i);
+						}
+					}
+
+					public HandleWriteResult failed(int i,
+							RuntimeException cause) {
+						return HandleWriteResult.failed(handles.get(i),
+								statusCode(cause), cause.toString())
+								.forRecord(i);
+					}
+				});
+	}
+
+	private abstract static class WriteOperation implements
+			Operation<HandleWriteResult> {
+
+		private final List<HandleReference> records;
+
+		WriteOperation(List<HandleReference> records) {
+			this.records = records;
+		}
+
+		protected abstract HandleWriteResult write(HandleReference record)
+				throws HandleException;
+
+		public HandleWriteResult apply(int i) {
+			HandleReference record = records.get(i);
+			try {
+				return write(record).forRecord(i);
+			} catch (HandleException exc) {
+				return HandleWriteResult.failed(record.getHandle(), exc)
+						.forRecord(i);
+			}
+		}
+
+		public HandleWriteResult failed(int i, RuntimeException cause) {
+			return HandleWriteResult.failed(records.get(i).getHandle(),
+					statusCode(cause), cause.toString()).forRecord(i);
+		}
+	}
+
+	private static int statusCode(RuntimeException cause) {
+		logger.error(cause.getMessage(), cause);
+		return 500;
+	}
+
+	/**
+	 * Applies the operation to all positions of the batch, keeping at most
+	 * {@link #window} of them outstanding.
+	 *
+	 * @param results
+	 *            receives the results in order
+	 */
+	private <T> List<T> pipeline(final T[] results,
+			final Operation<T> operation) {
+		if (results.length == 1) {
+			// nothing to overlap with
+			results[0] = apply(operation, 0);
+			return Arrays.asList(results);
+		}
+		CompletionService<Void> completion = new ExecutorCompletionService<Void>(
+				executor);
+		int outstanding = 0;
+		for (int i = 0; i < results.length; i++) {
+			while (outstanding >= window) {
+				awaitNext(completion);
+				outstanding--;
+			}
+			final int position = i;
+			completion.submit(new Callable<Void>() {
+				public Void call() {
+					results[position] = apply(operation, position);
+					return null;
+				}
+			});
+			outstanding++;
+		}
+		while (outstanding > 0) {
+			awaitNext(completion);
+			outstanding--;
+		}
+		// the results were published by completing the futures
+		return Arrays.asList(results);
+	}
+
+	private static <T> T apply(Operation<T> operation, int i) {
+		try {
+			return operation.apply(i);
+		} catch (RuntimeException exc) {
+			return operation.failed(i, exc);
+		}
+	}
+
+	private static void awaitNext(CompletionService<Void> completion) {
+		try {
+			completion.take().get();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for "
+					+ "batch results", exc);
+		} catch (ExecutionException exc) {
+			// only errors get here
+			throw new IllegalStateException(exc.getCause());
+		}
+	}
+
+}
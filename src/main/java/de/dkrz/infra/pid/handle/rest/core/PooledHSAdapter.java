@@ -0,0 +1,122 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.AdminRecord;
+import net.handle.hdllib.Common;
+import net.handle.hdllib.Encoder;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+import net.handle.hdllib.Util;
+
+/**
+ * HSAdapter that borrows an instance from an {@link HSAdapterPool} for every
+ * call and returns it right afterwards, so concurrent callers use separate
+ * instances while sharing one adapter reference.
+ *
+ * Values are created locally, the same way the Handle API does it, without
+ * borrowing an instance.
+ */
+public class PooledHSAdapter implements HSAdapter {
+
+	private final HSAdapterPool pool;
+
+	public PooledHSAdapter(HSAdapterPool pool) {
+		if (pool == null)
+			throw new IllegalArgumentException(
+					"'pool' parameter must not be null!");
+		this.pool = pool;
+	}
+
+	public HSAdapterPool getPool() {
+		return pool;
+	}
+
+	public void addHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		HSAdapter adapter = pool.borrow();
+		try {
+			adapter.addHandleValues(handle, values);
+		} finally {
+			pool.release(adapter);
+		}
+	}
+
+	public HandleValue createAdminValue(String adminHandle, int keyIndex,
+			int index) throws HandleException {
+		AdminRecord admin = new AdminRecord(Util.encodeString(adminHandle),
+				keyIndex, true, true, true, true, true, true, true, true, true,
+				true, true, true);
+		return new HandleValue(index, Common.ADMIN_TYPE,
+				Encoder.encodeAdminRecord(admin), HandleValue.TTL_TYPE_RELATIVE,
+				86400, 0, null, true, true, true, false);
+	}
+
+	public void createHandle(String handle, HandleValue[] values)
+			throws HandleException {
+		HSAdapter adapter = pool.borrow();
+		try {
+			adapter.createHandle(handle, values);
+		} finally {
+			pool.release(adapter);
+		}
+	}
+
+	public HandleValue createHandleValue(int index, String type, String data)
+			throws HandleException {
+		return new HandleValue(index, Util.encodeString(type),
+				Util.encodeString(data), HandleValue.TTL_TYPE_RELATIVE, 86400,
+				0, null, true, true, true, false);
+	}
+
+	public void deleteHandle(String handle) throws HandleException {
+		HSAdapter adapter = pool.borrow();
+		try {
+			adapter.deleteHandle(handle);
+		} finally {
+			pool.release(adapter);
+		}
+	}
+
+	public void deleteHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		HSAdapter adapter = pool.borrow();
+		try {
+			adapter.deleteHandleValues(handle, values);
+		} finally {
+			pool.release(adapter);
+		}
+	}
+
+	public HandleValue[] resolveHandle(String handle, String[] types,
+			int[] indexes) throws HandleException {
+		HSAdapter adapter = pool.borrow();
+		try {
+			return adapter.resolveHandle(handle, types, indexes);
+		} finally {
+			pool.release(adapter);
+		}
+	}
+
+	public void setTcpTimeout(int newTcpTimeout) {
+		pool.setTcpTimeout(newTcpTimeout);
+	}
+
+	public int getTcpTimeout() {
+		return pool.getTcpTimeout();
+	}
+
+	public void setUseUDP(boolean useUDP) {
+		pool.setUseUDP(useUDP);
+	}
+
+	public void updateHandleValues(String handle, HandleValue[] values)
+			throws HandleException {
+		HSAdapter adapter = pool.borrow();
+		try {
+			adapter.updateHandleValues(handle, values);
+		} finally {
+			pool.release(adapter);
+		}
+	}
+
+}
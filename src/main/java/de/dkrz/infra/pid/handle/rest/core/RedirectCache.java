@@ -0,0 +1,186 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.handle.hdllib.HandleValue;
+
+/**
+ * Cache of redirect targets, i.e. the URL a Handle resolves to.
+ *
+ * Unlike the {@link ResolutionCache}, entries hold only the ready-made target
+ * URI and lookups do not take a lock, as this cache sits on the hot path of
+ * every redirect. It follows the invalidations of the resolution cache, so a
+ * write to a Handle drops its redirect target as well.
+ *
+ * Races between a resolution and a write are detected with invalidation
+ * stamps kept per stripe of Handle names. The size bound is approximate: once
+ * it is reached, expired entries and then arbitrary ones are evicted.
+ */
+public class RedirectCache implements ResolutionCache.InvalidationListener {
+
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	/**
+	 * Default upper bound for the lifetime of a cache entry in seconds.
+	 */
+	public static final int DEFAULT_MAX_TTL = 60;
+
+	private static final int NUM_STRIPES = 64;
+
+	private final ConcurrentHashMap<String, Entry> entries;
+	private final AtomicLongArray stamps = new AtomicLongArray(NUM_STRIPES);
+	private final int maxEntries;
+	private final int maxTTL;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxEntries
+	 *            maximum number of Handles held in the cache
+	 * @param maxTTL
+	 *            maximum lifetime of an entry in seconds, regardless of the
+	 *            TTL of the URL value
+	 */
+	public RedirectCache(int maxEntries, int maxTTL) {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException(
+					"'maxEntries' parameter must be positive!");
+		this.maxEntries = maxEntries;
+		this.maxTTL = maxTTL;
+		this.entries = new ConcurrentHashMap<String, Entry>(Math.min(
+				maxEntries, 1024));
+	}
+
+	public RedirectCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_TTL);
+	}
+
+	/**
+	 * @return the cached redirect target or null if there is no valid entry
+	 */
+	public URI get(String handle) {
+		Entry entry = entries.get(handle);
+		if ((entry == null)
+				|| (entry.expiresAt <= System.currentTimeMillis())) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.location;
+	}
+
+	/**
+	 * Returns the invalidation stamp for the given Handle. Must be obtained
+	 * before the Handle is resolved and passed on to
+	 * {@link #put(String, URI, HandleValue, long)}.
+	 */
+	public long getStamp(String handle) {
+		return stamps.get(stripeFor(handle));
+	}
+
+	/**
+	 * Stores a redirect target unless the Handle has been invalidated since
+	 * the given stamp was obtained.
+	 *
+	 * @param value
+	 *            the URL value the target was taken from; its TTL limits the
+	 *            lifetime of the entry
+	 */
+	public void put(String handle, URI location, HandleValue value, long stamp) {
+		long now = System.currentTimeMillis();
+		long expiresAt = now + maxTTL * 1000L;
+		long valueExpiresAt;
+		if (value.getTTLType() == HandleValue.TTL_TYPE_ABSOLUTE)
+			valueExpiresAt = value.getTTL() * 1000L;
+		else
+			valueExpiresAt = now + value.getTTL() * 1000L;
+		if (valueExpiresAt < expiresAt)
+			expiresAt = valueExpiresAt;
+		if (expiresAt <= now)
+			return;
+		int stripe = stripeFor(handle);
+		if (stamps.get(stripe) != stamp)
+			return;
+		if (entries.size() >= maxEntries)
+			evict(now);
+		Entry entry = new Entry(location, expiresAt);
+		entries.put(handle, entry);
+		// an invalidation may have slipped in between the check and the put
+		if (stamps.get(stripe) != stamp)
+			entries.remove(handle, entry);
+	}
+
+	private void evict(long now) {
+		int toEvict = Math.max(1, maxEntries / NUM_STRIPES);
+		for (Iterator<Entry> iter = entries.values().iterator(); iter
+				.hasNext() && (toEvict > 0);) {
+			if (iter.next().expiresAt <= now) {
+				iter.remove();
+				evictions.incrementAndGet();
+				toEvict--;
+			}
+		}
+		for (Iterator<Entry> iter = entries.values().iterator(); iter
+				.hasNext() && (toEvict > 0);) {
+			iter.next();
+			iter.remove();
+			evictions.incrementAndGet();
+			toEvict--;
+		}
+	}
+
+	/**
+	 * Drops the redirect target of the given Handle.
+	 */
+	public void invalidated(String handle) {
+		stamps.incrementAndGet(stripeFor(handle));
+		entries.remove(handle);
+	}
+
+	public void cleared() {
+		for (int i = 0; i < NUM_STRIPES; i++)
+			stamps.incrementAndGet(i);
+		entries.clear();
+	}
+
+	private static int stripeFor(String handle) {
+		int h = handle.hashCode();
+		h ^= (h >>> 16);
+		return h & (NUM_STRIPES - 1);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	private static class Entry {
+		final URI location;
+		final long expiresAt;
+
+		Entry(URI location, long expiresAt) {
+			this.location = location;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+}
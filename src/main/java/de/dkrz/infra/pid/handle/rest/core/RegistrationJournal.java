@@ -0,0 +1,484 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import net.handle.hdllib.Encoder;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Durable, append-only journal of Handle records waiting to be registered.
+ * 
+ * Records are appended to memory-mapped segment files of a fixed size; every
+ * record is addressed by its byte offset in the journal as a whole. A record
+ * consists of its length, a CRC32 checksum, the Handle name and values in the
+ * Handle protocol encoding and a flag telling whether the name was generated
+ * by the service. Appending only writes to the mapped memory;
+ * {@link #sync(long)} forces the segment to disk, and concurrent callers
+ * waiting for overlapping ranges share a single force ("group commit").
+ * 
+ * A single reader (the drainer) consumes records in order and acknowledges
+ * the offset up to which they are registered. The acknowledged offset is
+ * persisted, so reading resumes there after a restart, and segments that are
+ * completely acknowledged are deleted.
+ * 
+ * The journal holds an exclusive lock on a file "lock" in its directory until
+ * it is closed, so a second journal, in this or another process, cannot be
+ * opened on the same directory.
+ */
+public class RegistrationJournal {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String ACK_FILE = "ack";
+	private static final String LOCK_FILE = "lock";
+
+	/**
+	 * Marks the end of the records in a segment that had no room for the
+	 * next record.
+	 */
+	private static final int SEGMENT_END = -1;
+	private static final int HEADER_SIZE = 8;
+
+	private static final Logger logger = Logger
+			.getLogger(RegistrationJournal.class);
+
+	private final File directory;
+	private final int segmentSize;
+	private final RandomAccessFile lockFile;
+	private boolean closed;
+
+	/**
+	 * Open segments by start offset; guarded by this.
+	 */
+	private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<Long, MappedByteBuffer>();
+	private long writeSegment;
+	private long writeOffset;
+
+	private final Object syncLock = new Object();
+	private volatile long durableOffset;
+
+	private volatile long ackOffset;
+	private long readOffset;
+
+	/**
+	 * Opens the journal in the given directory, creating it if necessary.
+	 * 
+	 * @param segmentSize
+	 *            size of each segment file in bytes; bounds the size of a
+	 *            single record
+	 * @throws IOException
+	 *             also if the directory is locked by another journal
+	 */
+	public RegistrationJournal(File directory, int segmentSize)
+			throws IOException {
+		if (segmentSize < 1024)
+			throw new IllegalArgumentException("Segment size too small!");
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create journal directory "
+					+ directory);
+		this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE),
+				"rw");
+		boolean opened = false;
+		try {
+			lock();
+			open();
+			opened = true;
+		} finally {
+			// closing the file releases the lock
+			if (!opened)
+				lockFile.close();
+		}
+		logger.info("Opened registration journal " + directory
+				+ ", acknowledged up to " + ackOffset + ", written up to "
+				+ writeOffset);
+	}
+
+	private void lock() throws IOException {
+		FileLock lock;
+		try {
+			lock = lockFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException exc) {
+			// held by another journal in this process
+			lock = null;
+		}
+		if (lock == null)
+			throw new IOException("Journal directory " + directory
+					+ " is in use by another journal");
+	}
+
+	private void open() throws IOException {
+		this.ackOffset = readAck();
+		List<Long> starts = new ArrayList<Long>();
+		File[] files = directory.listFiles();
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(SEGMENT_SUFFIX))
+				starts.add(Long.valueOf(name.substring(0, name.length()
+						- SEGMENT_SUFFIX.length())));
+		}
+		if (starts.isEmpty()) {
+			// start a new segment behind everything acknowledged
+			starts.add((ackOffset + segmentSize - 1) / segmentSize
+					* segmentSize);
+		}
+		Collections.sort(starts);
+		for (int i = 0; i < starts.size(); i++) {
+			long start = starts.get(i);
+			if ((start + segmentSize <= ackOffset) && (i < starts.size() - 1)) {
+				// left over from a crash between acknowledging and deleting
+				segmentFile(start).delete();
+				continue;
+			}
+			segments.put(start, map(start));
+		}
+		this.writeSegment = segments.lastKey();
+		this.writeOffset = writeSegment + scanEnd(segments.get(writeSegment));
+		ackOffset = Math.min(Math.max(ackOffset, segments.firstKey()),
+				writeOffset);
+		this.readOffset = ackOffset;
+		this.durableOffset = writeOffset;
+	}
+
+	private File segmentFile(long start) {
+		return new File(directory, String.format("%020d", start)
+				+ SEGMENT_SUFFIX);
+	}
+
+	private MappedByteBuffer map(long start) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(segmentFile(start), "rw");
+		try {
+			// the mapping stays valid after the file is closed
+			return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					segmentSize);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Finds the end of the valid records in a segment, i.e. the first
+	 * position holding no record, a torn record or the end marker.
+	 */
+	private int scanEnd(MappedByteBuffer segment) {
+		ByteBuffer buf = segment.duplicate();
+		int pos = 0;
+		while (pos + HEADER_SIZE <= segmentSize) {
+			int length = buf.getInt(pos);
+			if (length == SEGMENT_END)
+				return segmentSize;
+			if ((length <= 0) || (pos + HEADER_SIZE + length > segmentSize)
+					|| (checksum(buf, pos + HEADER_SIZE, length) != buf
+							.getInt(pos + 4)))
+				return pos;
+			pos += HEADER_SIZE + length;
+		}
+		return pos;
+	}
+
+	private static int checksum(ByteBuffer buf, int pos, int length) {
+		byte[] payload = new byte[length];
+		ByteBuffer view = buf.duplicate();
+		view.position(pos);
+		view.get(payload);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	private long readAck() throws IOException {
+		File ackFile = new File(directory, ACK_FILE);
+		if (!ackFile.exists() || (ackFile.length() < 8))
+			return 0;
+		DataInputStream in = new DataInputStream(new FileInputStream(ackFile));
+		try {
+			return in.readLong();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Encodes a Handle record named by the client as a journal payload.
+	 */
+	public static byte[] encode(String handle, HandleValue[] values)
+			throws HandleException {
+		return encode(handle, values, false);
+	}
+
+	/**
+	 * Encodes a Handle record as a journal payload.
+	 * 
+	 * @param generated
+	 *            true if the name was generated by the service, so the record
+	 *            must never overwrite an existing Handle
+	 */
+	public static byte[] encode(String handle, HandleValue[] values,
+			boolean generated) throws HandleException {
+		byte[] name = handle.getBytes(UTF8);
+		int size = 4 + name.length + 4 + 1;
+		for (HandleValue hv : values) {
+			size += 4 + Encoder.calcStorageSize(hv);
+		}
+		byte[] payload = new byte[size];
+		ByteBuffer buf = ByteBuffer.wrap(payload);
+		buf.putInt(name.length);
+		buf.put(name);
+		buf.putInt(values.length);
+		for (HandleValue hv : values) {
+			int valueSize = Encoder.calcStorageSize(hv);
+			buf.putInt(valueSize);
+			Encoder.encodeHandleValue(payload, buf.position(), hv);
+			buf.position(buf.position() + valueSize);
+		}
+		buf.put((byte) (generated ? 1 : 0));
+		return payload;
+	}
+
+	/**
+	 * Appends a record.
+	 * 
+	 * @return the offset just behind the record; it is durable once
+	 *         {@link #sync(long)} for this offset returned
+	 */
+	public synchronized long append(byte[] payload) throws IOException {
+		if (closed)
+			throw new IOException("Registration journal is closed");
+		if (HEADER_SIZE + payload.length + 4 > segmentSize)
+			throw new IllegalArgumentException("Record of " + payload.length
+					+ " bytes exceeds journal segment size");
+		int pos = (int) (writeOffset - writeSegment);
+		MappedByteBuffer segment = segments.get(writeSegment);
+		if (pos + HEADER_SIZE + payload.length + 4 > segmentSize) {
+			// roll over to a new segment
+			if (pos + 4 <= segmentSize)
+				segment.putInt(pos, SEGMENT_END);
+			segment.force();
+			writeSegment += segmentSize;
+			segment = map(writeSegment);
+			segments.put(writeSegment, segment);
+			pos = 0;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteBuffer buf = segment.duplicate();
+		buf.position(pos + HEADER_SIZE);
+		buf.put(payload);
+		// terminate, in case stale data follows after a torn write
+		if (buf.position() + 4 <= segmentSize)
+			buf.putInt(0);
+		segment.putInt(pos + 4, (int) crc.getValue());
+		// the length goes last so a torn record is never taken as valid
+		segment.putInt(pos, payload.length);
+		writeOffset = writeSegment + pos + HEADER_SIZE + payload.length;
+		notifyAll();
+		return writeOffset;
+	}
+
+	/**
+	 * Makes sure all records up to the given offset are on disk. Threads
+	 * calling this concurrently share one force of the segment.
+	 */
+	public void sync(long offset) {
+		if (durableOffset >= offset)
+			return;
+		synchronized (syncLock) {
+			if (durableOffset >= offset)
+				return;
+			MappedByteBuffer segment;
+			long target;
+			synchronized (this) {
+				segment = segments.get(writeSegment);
+				target = writeOffset;
+			}
+			// earlier segments were forced when rolling over
+			segment.force();
+			durableOffset = target;
+		}
+	}
+
+	/**
+	 * A record read from the journal.
+	 */
+	public static class Entry {
+		private final String handle;
+		private final HandleValue[] values;
+		private final boolean generated;
+		private final long endOffset;
+
+		Entry(String handle, HandleValue[] values, boolean generated,
+				long endOffset) {
+			this.handle = handle;
+			this.values = values;
+			this.generated = generated;
+			this.endOffset = endOffset;
+		}
+
+		public String getHandle() {
+			return handle;
+		}
+
+		public HandleValue[] getValues() {
+			return values;
+		}
+
+		/**
+		 * @return true if the name was generated by the service
+		 */
+		public boolean isGenerated() {
+			return generated;
+		}
+
+		/**
+		 * @return the offset to acknowledge once this record is registered
+		 */
+		public long getEndOffset() {
+			return endOffset;
+		}
+	}
+
+	/**
+	 * Reads the next records not yet handed out, waiting for new records if
+	 * there are none.
+	 * 
+	 * @param maxRecords
+	 *            maximum number of records returned
+	 * @param timeoutMillis
+	 *            maximum time to wait for the first record
+	 * @return the records, possibly none if the timeout expired
+	 */
+	public List<Entry> read(int maxRecords, long timeoutMillis)
+			throws InterruptedException {
+		List<Entry> entries = new ArrayList<Entry>();
+		synchronized (this) {
+			if (readOffset >= writeOffset)
+				wait(timeoutMillis);
+			while ((entries.size() < maxRecords) && (readOffset < writeOffset)) {
+				long start = segments.floorKey(readOffset);
+				MappedByteBuffer segment = segments.get(start);
+				int pos = (int) (readOffset - start);
+				int length = (pos + HEADER_SIZE <= segmentSize) ? segment
+						.getInt(pos) : SEGMENT_END;
+				if ((length == SEGMENT_END) || (length == 0)) {
+					readOffset = start + segmentSize;
+					continue;
+				}
+				byte[] payload = new byte[length];
+				ByteBuffer buf = segment.duplicate();
+				buf.position(pos + HEADER_SIZE);
+				buf.get(payload);
+				readOffset += HEADER_SIZE + length;
+				try {
+					entries.add(decode(payload, readOffset));
+				} catch (HandleException exc) {
+					logger.error("Skipping undecodable journal record ending at "
+							+ readOffset, exc);
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static Entry decode(byte[] payload, long endOffset)
+			throws HandleException {
+		ByteBuffer buf = ByteBuffer.wrap(payload);
+		byte[] name = new byte[buf.getInt()];
+		buf.get(name);
+		HandleValue[] values = new HandleValue[buf.getInt()];
+		for (int i = 0; i < values.length; i++) {
+			int valueSize = buf.getInt();
+			values[i] = new HandleValue();
+			Encoder.decodeHandleValue(payload, buf.position(), values[i]);
+			buf.position(buf.position() + valueSize);
+		}
+		// records written before the flag was introduced end here
+		boolean generated = buf.hasRemaining() && (buf.get() != 0);
+		return new Entry(new String(name, UTF8), values, generated, endOffset);
+	}
+
+	/**
+	 * Records that all records up to the given offset are registered, and
+	 * deletes segments no longer needed.
+	 */
+	public void acknowledge(long offset) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(directory,
+				ACK_FILE), "rw");
+		try {
+			file.seek(0);
+			file.writeLong(offset);
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+		this.ackOffset = offset;
+		List<Long> obsolete = new ArrayList<Long>();
+		synchronized (this) {
+			for (long start : segments.keySet()) {
+				if ((start + segmentSize <= offset) && (start != writeSegment))
+					obsolete.add(start);
+			}
+			for (long start : obsolete) {
+				segments.remove(start);
+			}
+		}
+		for (long start : obsolete) {
+			if (!segmentFile(start).delete())
+				logger.warn("Cannot delete journal segment " + start);
+		}
+	}
+
+	/**
+	 * @return the offset up to which records are registered; a tracking id
+	 *         returned by {@link #append(byte[])} is done once this is at
+	 *         least as large
+	 */
+	public long getAcknowledgedOffset() {
+		return ackOffset;
+	}
+
+	public synchronized long getWriteOffset() {
+		return writeOffset;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Forces all records to disk and releases the lock on the directory.
+	 * Further appends fail; the drainer must be stopped before.
+	 */
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			segments.get(writeSegment).force();
+			durableOffset = writeOffset;
+		} finally {
+			lockFile.close();
+		}
+	}
+
+}
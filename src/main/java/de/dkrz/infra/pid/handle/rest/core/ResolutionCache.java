@@ -0,0 +1,316 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.handle.hdllib.HandleValue;
+
+/**
+ * Bounded in-process cache of Handle resolution results.
+ *
+ * Entries are grouped per Handle name so that a write to a Handle can drop
+ * every cached selection (types/indexes) of it at once. The cache is bounded
+ * by the number of Handles (least recently used Handles are evicted first) and
+ * by time: an entry expires after the configured maximum TTL or after the
+ * shortest TTL of the cached values, whichever comes first.
+ *
+ * To keep lock contention low, the cache is split into segments that are
+ * locked independently.
+ */
+public class ResolutionCache {
+
+	/**
+	 * Notified whenever cached entries are dropped because of a write, so that
+	 * caches derived from resolution results can follow.
+	 */
+	public interface InvalidationListener {
+		/**
+		 * Called after all entries of the given Handle were dropped.
+		 */
+		public void invalidated(String handle);
+
+		/**
+		 * Called after the whole cache was cleared.
+		 */
+		public void cleared();
+	}
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	/**
+	 * Default upper bound for the lifetime of a cache entry in seconds.
+	 */
+	public static final int DEFAULT_MAX_TTL = 60;
+
+	private static final int NUM_SEGMENTS = 16;
+
+	private final Segment[] segments;
+	private final int maxTTL;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private final CopyOnWriteArrayList<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxEntries
+	 *            maximum number of Handles held in the cache
+	 * @param maxTTL
+	 *            maximum lifetime of an entry in seconds, regardless of the
+	 *            TTL of the values
+	 */
+	public ResolutionCache(int maxEntries, int maxTTL) {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException(
+					"'maxEntries' parameter must be positive!");
+		this.maxTTL = maxTTL;
+		int maxPerSegment = Math.max(1, maxEntries / NUM_SEGMENTS);
+		this.segments = new Segment[NUM_SEGMENTS];
+		for (int i = 0; i < NUM_SEGMENTS; i++)
+			segments[i] = new Segment(maxPerSegment);
+	}
+
+	public ResolutionCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_TTL);
+	}
+
+	/**
+	 * Builds the key identifying a particular selection of values of a Handle
+	 * as passed to HSAdapter.resolveHandle.
+	 *
+	 * @param types
+	 *            value types or null
+	 * @param indexes
+	 *            value indexes or null
+	 * @return a String key; the empty String stands for the full record
+	 */
+	public static String selectionKey(String[] types, int[] indexes) {
+		boolean noTypes = (types == null) || (types.length == 0);
+		boolean noIndexes = (indexes == null) || (indexes.length == 0);
+		if (noTypes && noIndexes)
+			return "";
+		StringBuilder sb = new StringBuilder();
+		if (!noTypes) {
+			for (String t : types)
+				sb.append(t).append(',');
+		}
+		sb.append('|');
+		if (!noIndexes) {
+			for (int i : indexes)
+				sb.append(i).append(',');
+		}
+		return sb.toString();
+	}
+
+	private Segment segmentFor(String handle) {
+		int h = handle.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % NUM_SEGMENTS];
+	}
+
+	/**
+	 * Looks up a cached resolution result.
+	 *
+	 * @return a deep copy of the cached values or null if there is no valid
+	 *         entry
+	 */
+	public HandleValue[] get(String handle, String selection) {
+		Segment seg = segmentFor(handle);
+		long now = System.currentTimeMillis();
+		HandleValue[] values;
+		synchronized (seg) {
+			Map<String, Entry> selections = seg.get(handle);
+			Entry entry = (selections != null) ? selections.get(selection)
+					: null;
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			if (entry.expiresAt <= now) {
+				selections.remove(selection);
+				if (selections.isEmpty())
+					seg.remove(handle);
+				expirations.incrementAndGet();
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			values = entry.values;
+		}
+		// cached values are never handed out, so copying needs no lock
+		return duplicate(values);
+	}
+
+	/**
+	 * Returns the invalidation stamp for the given Handle. Must be obtained
+	 * before the backend is queried and passed on to
+	 * {@link #put(String, String, HandleValue[], long)}, so that results of a
+	 * resolution that raced with a write are not cached.
+	 */
+	public long getStamp(String handle) {
+		Segment seg = segmentFor(handle);
+		synchronized (seg) {
+			return seg.stamp;
+		}
+	}
+
+	/**
+	 * Stores a resolution result unless the Handle has been invalidated since
+	 * the given stamp was obtained or the values are already expired.
+	 */
+	public void put(String handle, String selection, HandleValue[] values,
+			long stamp) {
+		long now = System.currentTimeMillis();
+		long expiresAt = computeExpiry(values, now);
+		if (expiresAt <= now)
+			return;
+		Segment seg = segmentFor(handle);
+		synchronized (seg) {
+			if (seg.stamp != stamp)
+				return;
+			Map<String, Entry> selections = seg.get(handle);
+			if (selections == null) {
+				selections = new HashMap<String, Entry>(2);
+				seg.put(handle, selections);
+			}
+			selections.put(selection, new Entry(duplicate(values), expiresAt));
+		}
+	}
+
+	/**
+	 * Drops all cached selections of the given Handle.
+	 */
+	public void invalidate(String handle) {
+		Segment seg = segmentFor(handle);
+		synchronized (seg) {
+			seg.stamp++;
+			if (seg.remove(handle) != null)
+				invalidations.incrementAndGet();
+		}
+		for (InvalidationListener listener : listeners)
+			listener.invalidated(handle);
+	}
+
+	public void clear() {
+		for (Segment seg : segments) {
+			synchronized (seg) {
+				seg.stamp++;
+				seg.clear();
+			}
+		}
+		for (InvalidationListener listener : listeners)
+			listener.cleared();
+	}
+
+	public void addInvalidationListener(InvalidationListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @return the number of Handles currently held in the cache
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment seg : segments) {
+			synchronized (seg) {
+				size += seg.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Copies the given values, so that changes by one caller do not show
+	 * through to others sharing them.
+	 */
+	static HandleValue[] duplicate(HandleValue[] values) {
+		HandleValue[] result = new HandleValue[values.length];
+		for (int i = 0; i < values.length; i++)
+			result[i] = values[i].duplicate();
+		return result;
+	}
+
+	private long computeExpiry(HandleValue[] values, long now) {
+		long expiresAt = now + maxTTL * 1000L;
+		for (HandleValue hv : values) {
+			long valueExpiresAt;
+			if (hv.getTTLType() == HandleValue.TTL_TYPE_ABSOLUTE)
+				valueExpiresAt = hv.getTTL() * 1000L;
+			else
+				valueExpiresAt = now + hv.getTTL() * 1000L;
+			if (valueExpiresAt < expiresAt)
+				expiresAt = valueExpiresAt;
+		}
+		return expiresAt;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ResolutionCache [size=" + size() + ", hits=" + getHits()
+				+ ", misses=" + getMisses() + ", evictions=" + getEvictions()
+				+ ", expirations=" + getExpirations() + ", invalidations="
+				+ getInvalidations() + "]";
+	}
+
+	private static class Entry {
+		final HandleValue[] values;
+		final long expiresAt;
+
+		Entry(HandleValue[] values, long expiresAt) {
+			this.values = values;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private class Segment extends LinkedHashMap<String, Map<String, Entry>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int maxEntries;
+		long stamp = 0;
+
+		Segment(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, Map<String, Entry>> eldest) {
+			if (size() > maxEntries) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+}
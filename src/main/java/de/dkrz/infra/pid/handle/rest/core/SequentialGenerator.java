@@ -0,0 +1,27 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+/**
+ * Generates consecutive decimal numbers as suffixes, optionally preceded by a
+ * node name so that several service instances can share a prefix.
+ */
+public class SequentialGenerator implements IdentifierNameGenerator {
+
+	private final BlockSequence sequence;
+	private final String node;
+
+	/**
+	 * @param sequence
+	 *            source of the numbers
+	 * @param node
+	 *            name of this service instance, or empty string
+	 */
+	public SequentialGenerator(BlockSequence sequence, String node) {
+		this.sequence = sequence;
+		this.node = (node.length() > 0) ? node + "-" : "";
+	}
+
+	public String generateName(String prefix) {
+		return prefix + "/" + node + sequence.next();
+	}
+
+}
@@ -0,0 +1,181 @@
+package de.dkrz.infra.pid.handle.rest.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+/**
+ * HSAdapter decorator that runs Handle System round trips on a dedicated
+ * executor and gives up waiting for them after a fixed time. A call that does
+ * not complete in time (including time spent queued) is cancelled and fails
+ * with a {@link HandleTimeoutException}, so request threads never hang on a
+ * slow or unreachable server. On an executor from {@link #newExecutor(int)},
+ * a call finding all backend threads busy is not queued but fails right away
+ * with a {@link HandleBackendBusyException}.
+ *
+ * This is a pure timeout: the calling thread still waits for the call, up to
+ * the timeout, so it does not free container threads. It is only installed
+ * when a timeout is configured.
+ *
+ * Note that a timed-out write may still be applied by the Handle System; the
+ * client has to check the record before retrying.
+ */
+public class TimeLimitedHSAdapter extends ForwardingHSAdapter {
+
+	private final ExecutorService executor;
+	private final long timeoutMillis;
+
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param delegate
+	 *            adapter doing the actual calls
+	 * @param executor
+	 *            executor the calls run on; its size bounds the number of
+	 *            concurrent Handle System round trips
+	 * @param timeoutMillis
+	 *            maximum time to wait for a call, in milliseconds
+	 */
+	public TimeLimitedHSAdapter(HSAdapter delegate, ExecutorService executor,
+			long timeoutMillis) {
+		super(delegate);
+		if (timeoutMillis <= 0)
+			throw new IllegalArgumentException("Timeout must be positive!");
+		this.executor = executor;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Creates an executor for the calls with the given number of threads
+	 * and no queue, so that calls are rejected once all threads are busy
+	 * instead of waiting behind others until they time out.
+	 */
+	public static ExecutorService newExecutor(int threads) {
+		return new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(),
+				new NamedThreadFactory("handle-rest-backend"));
+	}
+
+	private <T> T call(String handle, Callable<T> callable)
+			throws HandleException {
+		Future<T> future;
+		try {
+			future = executor.submit(callable);
+		} catch (RejectedExecutionException exc) {
+			throw new HandleBackendBusyException(
+					"No backend thread free for " + handle);
+		}
+		try {
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException exc) {
+			future.cancel(true);
+			timeouts.incrementAndGet();
+			throw new HandleTimeoutException("No response for " + handle
+					+ " within " + timeoutMillis + " ms");
+		} catch (ExecutionException exc) {
+			Throwable cause = exc.getCause();
+			if (cause instanceof HandleException)
+				throw (HandleException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new HandleException(HandleException.INTERNAL_ERROR,
+					cause.toString());
+		} catch (InterruptedException exc) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new HandleException(HandleException.INTERNAL_ERROR,
+					"Interrupted while waiting for " + handle);
+		}
+	}
+
+	@Override
+	public HandleValue[] resolveHandle(final String handle,
+			final String[] types, final int[] indexes) throws HandleException {
+		return call(handle, new Callable<HandleValue[]>() {
+			public HandleValue[] call() throws Exception {
+				return delegate.resolveHandle(handle, types, indexes);
+			}
+		});
+	}
+
+	@Override
+	public void createHandle(final String handle, final HandleValue[] values)
+			throws HandleException {
+		call(handle, new Callable<Void>() {
+			public Void call() throws Exception {
+				delegate.createHandle(handle, values);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void addHandleValues(final String handle,
+			final HandleValue[] values) throws HandleException {
+		call(handle, new Callable<Void>() {
+			public Void call() throws Exception {
+				delegate.addHandleValues(handle, values);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void updateHandleValues(final String handle,
+			final HandleValue[] values) throws HandleException {
+		call(handle, new Callable<Void>() {
+			public Void call() throws Exception {
+				delegate.updateHandleValues(handle, values);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void deleteHandleValues(final String handle,
+			final HandleValue[] values) throws HandleException {
+		call(handle, new Callable<Void>() {
+			public Void call() throws Exception {
+				delegate.deleteHandleValues(handle, values);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void deleteHandle(final String handle) throws HandleException {
+		call(handle, new Callable<Void>() {
+			public Void call() throws Exception {
+				delegate.deleteHandle(handle);
+				return null;
+			}
+		});
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * @return the number of calls abandoned because they exceeded the timeout
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+}
@@ -1,10 +1,45 @@
 package de.dkrz.infra.pid.handle.rest.core;
 
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Generates random (version 4) UUIDs as suffixes, with 122 random bits each.
+ * 
+ * Unlike {@link UUID#randomUUID()}, which draws from one shared SecureRandom,
+ * every thread uses its own SHA1PRNG instance, seeded once from the system on
+ * first use, so concurrent requests do not contend for a lock. The platform
+ * default would not do: on Linux, all NativePRNG instances read through one
+ * shared, locked source.
+ */
 public class UUIDGenerator implements IdentifierNameGenerator {
 
+	private static final ThreadLocal<SecureRandom> random = new ThreadLocal<SecureRandom>() {
+		@Override
+		protected SecureRandom initialValue() {
+			try {
+				return SecureRandom.getInstance("SHA1PRNG");
+			} catch (NoSuchAlgorithmException exc) {
+				// every Java platform provides SHA1PRNG
+				throw new IllegalStateException(exc);
+			}
+		}
+	};
+
 	public String generateName(String prefix) {
-		// TODO Auto-generated method stub
-		return null;
+		byte[] bytes = new byte[16];
+		random.get().nextBytes(bytes);
+		long msb = 0;
+		long lsb = 0;
+		for (int i = 0; i < 8; i++)
+			msb = (msb << 8) | (bytes[i] & 0xff);
+		for (int i = 8; i < 16; i++)
+			lsb = (lsb << 8) | (bytes[i] & 0xff);
+		// version 4, IETF variant
+		msb = (msb & ~0xf000L) | 0x4000L;
+		lsb = (lsb & ~(0xc000000000000000L)) | 0x8000000000000000L;
+		return prefix + "/" + new UUID(msb, lsb).toString();
 	}
 
 }
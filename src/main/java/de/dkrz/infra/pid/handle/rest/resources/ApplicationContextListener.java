@@ -0,0 +1,25 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+
+/**
+ * Starts the application context when the service is deployed, so that a
+ * failing start (e.g. a journal directory locked by another instance) fails
+ * the deployment, and shuts it down when the service is undeployed.
+ */
+public class ApplicationContextListener implements ServletContextListener {
+
+	public void contextInitialized(ServletContextEvent event) {
+		if (ApplicationContext.getInstance() == null)
+			throw new IllegalStateException(
+					"Cannot start application context; see log for the cause");
+	}
+
+	public void contextDestroyed(ServletContextEvent event) {
+		ApplicationContext.shutdownInstance();
+	}
+
+}
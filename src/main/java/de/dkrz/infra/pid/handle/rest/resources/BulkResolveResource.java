@@ -0,0 +1,204 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.BatchHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.HandleRecordWriter;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+import de.dkrz.infra.pid.handle.rest.core.HandleResolveResult;
+
+/**
+ * Resolves many Handles in one request.
+ *
+ * The request body is a JSON array of Handle names, each optionally prefixed
+ * with a key index (idx:prefix/suffix). "index" and "type" query parameters
+ * restrict the values returned for all of them, as for a single GET. The
+ * Handles are resolved concurrently on the bulk worker pool and the results
+ * are streamed back chunk by chunk, in request order, either as a JSON array
+ * or as newline-delimited JSON (one object per line), depending on the Accept
+ * header. Each result is either a record as returned by a single GET or an
+ * object with the Handle name, the status code a single GET would have been
+ * answered with, and a reason.
+ */
+@Path("resolve")
+public class BulkResolveResource {
+
+	public static final String NDJSON = "application/x-ndjson";
+
+	/**
+	 * Maximum number of Handles per request.
+	 */
+	public static final int MAX_HANDLES = 100000;
+
+	/**
+	 * Number of Handles resolved and written at a time.
+	 */
+	public static final int CHUNK_SIZE = 1000;
+
+	private static final Logger logger = Logger
+			.getLogger(BulkResolveResource.class);
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+	private final JsonFactory ndjsonFactory = new JsonFactory();
+
+	public BulkResolveResource() {
+		// the container owns the entity stream
+		jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		ndjsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		// objects are terminated with a newline instead
+		ndjsonFactory.setRootValueSeparator(null);
+	}
+
+	@POST
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response resolveJson(@QueryParam("index") List<String> indexList,
+			@QueryParam("type") List<String> typeList, InputStream requestBody) {
+		return resolve(requestBody, indexList, typeList, false);
+	}
+
+	@POST
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(NDJSON)
+	public Response resolveNdjson(
+			@QueryParam("index") List<String> indexList,
+			@QueryParam("type") List<String> typeList, InputStream requestBody) {
+		return resolve(requestBody, indexList, typeList, true);
+	}
+
+	/**
+	 * Reads the array of Handle names up front, so that a malformed request
+	 * is rejected before any result is sent, and streams the results.
+	 */
+	private Response resolve(InputStream requestBody, List<String> indexList,
+			List<String> typeList, final boolean ndjson) {
+		// invalid query parameters affect every Handle
+		try {
+			new HandleReference("").select(indexList, typeList);
+		} catch (IllegalArgumentException exc) {
+			throw new WebApplicationException(exc, 400);
+		}
+		// null where the name is invalid; the result for it is in invalid
+		final List<HandleReference> handles = new ArrayList<HandleReference>();
+		final Map<Integer, HandleResolveResult> invalid = new HashMap<Integer, HandleResolveResult>();
+		try {
+			JsonParser json = jsonFactory.createParser(requestBody);
+			if (!JsonToken.START_ARRAY.equals(json.nextToken()))
+				throw new JsonParseException(
+						"Base JSON element must be an array of Handle names!",
+						json.getCurrentLocation());
+			JsonToken token;
+			while (!JsonToken.END_ARRAY.equals(token = json.nextToken())) {
+				if (!JsonToken.VALUE_STRING.equals(token))
+					throw new JsonParseException(
+							"JSON format error - expected Handle name",
+							json.getCurrentLocation());
+				if (handles.size() == MAX_HANDLES)
+					throw new WebApplicationException(413);
+				String name = json.getText();
+				try {
+					HandleReference handleref = HandleReference
+							.fromRequestPath(name, true);
+					if (!handleref.hasProperName())
+						throw new IllegalArgumentException(
+								"Invalid Handle name: " + name);
+					handleref.select(indexList, typeList);
+					handles.add(handleref);
+				} catch (IllegalArgumentException exc) {
+					invalid.put(handles.size(), HandleResolveResult.failed(
+							name, 400, exc.getMessage()));
+					handles.add(null);
+				}
+			}
+			json.close();
+		} catch (IOException exc) {
+			logger.error(exc);
+			throw new WebApplicationException(exc, 400);
+		}
+		return Response.ok(new StreamingOutput() {
+			public void write(OutputStream output) throws IOException {
+				writeResults(handles, invalid, ndjson, output);
+			}
+		}, ndjson ? NDJSON : MediaType.APPLICATION_JSON).build();
+	}
+
+	/**
+	 * Resolves the Handles chunk by chunk through the batch adapter and writes
+	 * the results of each chunk as soon as it is complete, merging in the
+	 * results for invalid names at their positions.
+	 */
+	private void writeResults(List<HandleReference> handles,
+			Map<Integer, HandleResolveResult> invalid, boolean ndjson,
+			OutputStream output) throws IOException {
+		BatchHSAdapter batchAdapter = ApplicationContext.getInstance()
+				.getBatchAdapter();
+		JsonGenerator json = (ndjson ? ndjsonFactory : jsonFactory)
+				.createGenerator(output, JsonEncoding.UTF8);
+		if (!ndjson)
+			json.writeStartArray();
+		for (int from = 0; from < handles.size(); from += CHUNK_SIZE) {
+			int to = Math.min(from + CHUNK_SIZE, handles.size());
+			List<HandleReference> chunk = new ArrayList<HandleReference>(to
+					- from);
+			for (HandleReference handleref : handles.subList(from, to)) {
+				if (handleref != null)
+					chunk.add(handleref);
+			}
+			Iterator<HandleResolveResult> resolved = batchAdapter.resolveAll(
+					chunk).iterator();
+			for (int i = from; i < to; i++) {
+				writeResult(json, (handles.get(i) != null) ? resolved.next()
+						: invalid.get(i), ndjson);
+			}
+			json.flush();
+		}
+		if (!ndjson)
+			json.writeEndArray();
+		json.close();
+	}
+
+	static void writeResult(JsonGenerator json,
+			HandleResolveResult result, boolean ndjson) throws IOException {
+		if (result.isResolved()) {
+			HandleRecordWriter.writeRecord(json, result.getHandle(),
+					result.getValues());
+		} else {
+			json.writeStartObject();
+			json.writeStringField("handle", result.getHandle());
+			json.writeNumberField("status_code", result.getStatusCode());
+			if (result.getReason() != null)
+				json.writeStringField("reason", result.getReason());
+			json.writeEndObject();
+		}
+		if (ndjson)
+			json.writeRaw('\n');
+	}
+
+}
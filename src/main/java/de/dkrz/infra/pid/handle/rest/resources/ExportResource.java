@@ -0,0 +1,114 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.BatchHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.HandleNameIndex;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+import de.dkrz.infra.pid.handle.rest.core.HandleResolveResult;
+
+/**
+ * Exports all records under a prefix as newline-delimited JSON, e.g. for
+ * backups and reindexing.
+ *
+ * The Handles are taken from the name index page by page and resolved
+ * concurrently through the batch adapter, so memory use does not depend on
+ * the size of the prefix. Records are written one per line in the same shape
+ * as a single GET, and the output is flushed after every page so that clients
+ * can start consuming right away. Handles deleted since they were listed are
+ * skipped; other failures are written as objects with the Handle name, a
+ * status code and a reason. If the client accepts gzip, the output is
+ * compressed on the fly.
+ */
+@Path("export")
+public class ExportResource {
+
+	/**
+	 * Number of names taken from the name index at a time.
+	 */
+	public static final int PAGE_SIZE = 1000;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	public ExportResource() {
+		// the container owns the entity stream
+		jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		// objects are terminated with a newline instead
+		jsonFactory.setRootValueSeparator(null);
+	}
+
+	@GET
+	@Produces(BulkResolveResource.NDJSON)
+	@Path("{prefix}")
+	public Response export(@PathParam("prefix") final String prefix,
+			@HeaderParam("Accept-Encoding") @DefaultValue("") String acceptEncoding) {
+		final boolean gzip = acceptEncoding.toLowerCase().contains("gzip");
+		ResponseBuilder response = Response.ok(new StreamingOutput() {
+			public void write(OutputStream output) throws IOException {
+				if (gzip) {
+					// sync flush, so that each page reaches the client
+					GZIPOutputStream gzipOutput = new GZIPOutputStream(output,
+							true);
+					writeRecords(prefix, gzipOutput);
+					gzipOutput.finish();
+				} else
+					writeRecords(prefix, output);
+			}
+		}, BulkResolveResource.NDJSON).header("Vary", "Accept-Encoding");
+		if (gzip)
+			response.header("Content-Encoding", "gzip");
+		return response.build();
+	}
+
+	private void writeRecords(String prefix, OutputStream output)
+			throws IOException {
+		ApplicationContext context = ApplicationContext.getInstance();
+		BatchHSAdapter batchAdapter = context.getBatchAdapter();
+		HandleNameIndex nameIndex = context.getNameIndex();
+		JsonGenerator json = jsonFactory.createGenerator(output,
+				JsonEncoding.UTF8);
+		List<HandleReference> page = new ArrayList<HandleReference>(PAGE_SIZE);
+		String cursor = null;
+		List<String> names;
+		do {
+			names = nameIndex.list(prefix, cursor, PAGE_SIZE);
+			page.clear();
+			for (String name : names)
+				page.add(new HandleReference(name));
+			for (HandleResolveResult result : batchAdapter.resolveAll(page))
+				writeRecord(json, result);
+			json.flush();
+			if (!names.isEmpty())
+				cursor = names.get(names.size() - 1);
+		} while (names.size() == PAGE_SIZE);
+		json.close();
+	}
+
+	private static void writeRecord(JsonGenerator json,
+			HandleResolveResult result) throws IOException {
+		// deleted after it was listed
+		if (result.getStatusCode() == 404)
+			return;
+		BulkResolveResource.writeResult(json, result, true);
+	}
+
+}
@@ -0,0 +1,61 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleRecordWriter;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+
+/**
+ * Streams HandleReference entities as JSON straight onto the response,
+ * replacing the generic POJO/JAXB mapping for this type.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class HandleReferenceWriter implements
+		MessageBodyWriter<HandleReference> {
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	public HandleReferenceWriter() {
+		// the container owns the entity stream
+		jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	}
+
+	public boolean isWriteable(Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		return HandleReference.class.isAssignableFrom(type);
+	}
+
+	public long getSize(HandleReference t, Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	public void writeTo(HandleReference t, Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders,
+			OutputStream entityStream) throws IOException {
+		long start = System.nanoTime();
+		JsonGenerator json = jsonFactory.createGenerator(entityStream,
+				JsonEncoding.UTF8);
+		HandleRecordWriter.writeRecord(json, t);
+		json.close();
+		ApplicationContext.getInstance().getMetrics().phase("serialize")
+				.recordSince(start);
+	}
+
+}
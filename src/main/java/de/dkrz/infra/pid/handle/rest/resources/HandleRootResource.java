@@ -1,9 +1,21 @@
 package de.dkrz.infra.pid.handle.rest.resources;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
@@ -17,9 +29,12 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import net.handle.api.HSAdapter;
@@ -28,22 +43,44 @@ import net.handle.hdllib.HandleValue;
 
 import org.apache.log4j.Logger;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
 
 import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.CreateStatistics;
 import de.dkrz.infra.pid.handle.rest.core.HandleAuthorizationInfo;
+import de.dkrz.infra.pid.handle.rest.core.HandleETag;
+import de.dkrz.infra.pid.handle.rest.core.HandleRecordDiff;
+import de.dkrz.infra.pid.handle.rest.core.HandleRecordReader;
 import de.dkrz.infra.pid.handle.rest.core.HandleReference;
-import de.dkrz.infra.pid.handle.rest.core.HandleValueWrapper;
+import de.dkrz.infra.pid.handle.rest.core.HandleTimeoutException;
+import de.dkrz.infra.pid.handle.rest.core.HandleWriteResult;
 import de.dkrz.infra.pid.handle.rest.core.IdentifierNameGenerator;
 import de.dkrz.infra.pid.handle.rest.core.IdentifierNameGeneratorFactory;
+import de.dkrz.infra.pid.handle.rest.core.RegistrationJournal;
 
 @Path("handles")
 public class HandleRootResource {
 
-	public static final int DEFAULT_ADMIN_VALUE_INDEX = 100;
+	public static final int DEFAULT_ADMIN_VALUE_INDEX = ApplicationContext.DEFAULT_ADMIN_VALUE_INDEX;
+
+	/**
+	 * Number of names tried for a Handle to be created under a generated name.
+	 */
+	private static final int MAX_GENERATED_NAME_ATTEMPTS = 3;
+
+	/**
+	 * HTTP status code for responses carrying one status per record (WebDAV
+	 * Multi-Status).
+	 */
+	public static final int MULTI_STATUS = 207;
+
+	/**
+	 * Maximum number of Handle names listed per page.
+	 */
+	public static final int MAX_PAGE_SIZE = 10000;
 
 	private static final Logger logger = Logger
 			.getLogger(HandleRootResource.class);
@@ -63,32 +100,117 @@ public class HandleRootResource {
 		this.authInfo = ApplicationContext.getInstance().getAuthInfo();
 	}
 
+	/**
+	 * Lists the names of all Handles created through this service, one page at
+	 * a time.
+	 * 
+	 * @param cursor
+	 *            value of "next" from the previous page; empty for the first
+	 *            page
+	 * @param limit
+	 *            maximum number of names per page
+	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-	public String getHandles() {
-		throw new UnsupportedOperationException("not implemented yet");
+	public String getHandles(
+			@QueryParam("cursor") @DefaultValue("") String cursor,
+			@QueryParam("limit") @DefaultValue("100") int limit) {
+		return listHandles(null, cursor, limit);
 	}
 
+	/**
+	 * Lists the names of all Handles under a prefix created through this
+	 * service, one page at a time.
+	 * 
+	 * @see #getHandles(String, int)
+	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("{prefix}")
-	public List<HandleReference> getHandlesByPrefix(
-			@PathParam("prefix") String prefix) {
-		throw new UnsupportedOperationException("not implemented yet");
+	public String getHandlesByPrefix(@PathParam("prefix") String prefix,
+			@QueryParam("cursor") @DefaultValue("") String cursor,
+			@QueryParam("limit") @DefaultValue("100") int limit) {
+		return listHandles(prefix, cursor, limit);
 	}
 
+	/**
+	 * Writes a page of the name index as a JSON object with the fields
+	 * "handles" and, unless this is the last page, "next".
+	 */
+	private String listHandles(String prefix, String cursor, int limit) {
+		if ((limit < 1) || (limit > MAX_PAGE_SIZE))
+			throw new WebApplicationException(400);
+		// fetch one more name to tell whether there is a next page
+		List<String> names = ApplicationContext.getInstance().getNameIndex()
+				.list(prefix, (cursor.length() > 0) ? cursor : null, limit + 1);
+		try {
+			StringWriter writer = new StringWriter();
+			JsonGenerator json = jsonFactory.createGenerator(writer);
+			json.writeStartObject();
+			json.writeArrayFieldStart("handles");
+			for (int i = 0; i < Math.min(limit, names.size()); i++) {
+				json.writeString(names.get(i));
+			}
+			json.writeEndArray();
+			if (names.size() > limit)
+				json.writeStringField("next", names.get(limit - 1));
+			json.writeEndObject();
+			json.close();
+			return writer.toString();
+		} catch (IOException exc) {
+			throw new WebApplicationException(exc, 500);
+		}
+	}
+
+	/**
+	 * Resolves a Handle. The response carries a strong ETag computed from the
+	 * record's values; if the client's If-None-Match header matches it, the
+	 * response is a 304 without body.
+	 * 
+	 * The values returned can be restricted by index, either by prefixing the
+	 * Handle with a key index (idx:prefix/suffix) or with "index" query
+	 * parameters, and by type with "type" query parameters. Both parameters
+	 * may be repeated or hold comma-separated lists. As in the Handle
+	 * protocol, a value is returned if it matches any of the given indexes or
+	 * types. The selection is resolved by the Handle System itself, so only
+	 * the selected values are transferred.
+	 * 
+	 * The entity tag of a full record can be used with If-Match to overwrite
+	 * it conditionally. A response restricted to some values carries a weak
+	 * tag over these values only; it serves If-None-Match on the same
+	 * selection, but never matches If-Match.
+	 * 
+	 * @param indexList
+	 *            index values to return
+	 * @param typeList
+	 *            types of the values to return
+	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("{prefix}/{suffix}")
-	public HandleReference getHandle(@PathParam("prefix") String prefix,
-			@PathParam("suffix") String suffix) throws HandleException {
-		HandleReference handleref = new HandleReference(prefix + "/" + suffix);
+	public Response getHandle(@PathParam("prefix") String prefix,
+			@PathParam("suffix") String suffix,
+			@QueryParam("index") List<String> indexList,
+			@QueryParam("type") List<String> typeList) throws HandleException {
+		HandleReference handleref;
+		try {
+			handleref = HandleReference.fromRequestPath(prefix + "/" + suffix,
+					true);
+			handleref.select(indexList, typeList);
+		} catch (IllegalArgumentException exc) {
+			throw new WebApplicationException(exc, 400);
+		}
 		HSAdapter hsAdapter = ApplicationContext.getInstance().getHSAdapter();
 		try {
 			HandleValue[] allhv = hsAdapter.resolveHandle(handleref.getHandle(),
-					null, handleref.getIndexes());
+					handleref.getTypes(), handleref.getIndexes());
+			EntityTag etag = new EntityTag(HandleETag.compute(allhv),
+					handleref.hasSelection());
+			ResponseBuilder notModified = request.evaluatePreconditions(etag);
+			if (notModified != null)
+				return notModified.build();
 			handleref.addValues(allhv);
-			return handleref; 
+			return Response.ok(handleref).tag(etag).build();
 		} catch (HandleException exc) {
 			if (exc.getCode() == HandleException.HANDLE_DOES_NOT_EXIST)
 				throw new WebApplicationException(404);
@@ -98,16 +220,9 @@ public class HandleRootResource {
 
 	@POST
 	@Consumes(MediaType.APPLICATION_JSON)
-	public Response execRootPost(@QueryParam("generator") @DefaultValue("") String generatorName, String requestBody) {
+	public Response execRootPost(@QueryParam("generator") @DefaultValue("") String generatorName, InputStream requestBody) {
 		// request must contain one or many full handle names
-		IdentifierNameGenerator generator;
-		if (generatorName.equals("")) {
-			generator = ApplicationContext.getInstance()
-					.getDefaultIdentifierNameGenerator();
-		} else
-			generator = IdentifierNameGeneratorFactory
-					.fromString(generatorName);
-		return createHandles(null, generator, requestBody);
+		return createHandles(null, getGenerator(generatorName), requestBody);
 	}
 
 	@POST
@@ -115,19 +230,144 @@ public class HandleRootResource {
 	@Consumes(MediaType.APPLICATION_JSON)
 	public Response execPrefixPost(@PathParam("prefix") String prefix,
 			@QueryParam("generator") @DefaultValue("") String generatorName,
-			String requestBody) {
+			@HeaderParam("Prefer") @DefaultValue("") String prefer,
+			InputStream requestBody) {
 		// request will either contain only handle values, but no suffix (must
 		// use generator)
 		// but it might also work with json data that contains one or many full
 		// handle names (for this prefix!)
-		IdentifierNameGenerator generator;
-		if (generatorName.equals("")) {
-			generator = ApplicationContext.getInstance()
+		if (prefer.contains("respond-async")
+				&& (ApplicationContext.getInstance().getJournal() != null)) {
+			return registerHandlesAsync(prefix, getGenerator(generatorName),
+					requestBody);
+		}
+		return createHandles(prefix, getGenerator(generatorName), requestBody);
+	}
+
+	/**
+	 * Appends the records of a request to the registration journal and
+	 * returns right away, with status 202 and a tracking id that can be
+	 * polled at /registrations/{id}. The response lists the names of all
+	 * accepted Handles, including generated ones, and the records rejected,
+	 * e.g. because they cannot be registered under the given prefix. Records
+	 * are accepted one by one, so a failure never hides the tracking id of the
+	 * records accepted before it. If no record was accepted, there is nothing
+	 * to track: the response lists the rejected records with status 400, or
+	 * 503 if the journal could not be written. Records named by the generator
+	 * are journaled as such; like on the synchronous paths, they never
+	 * overwrite an existing Handle, but end up in the drainer's dead-letter
+	 * file if their name turns out to be taken.
+	 */
+	private Response registerHandlesAsync(String prefix,
+			IdentifierNameGenerator generator, InputStream requestBody) {
+		RegistrationJournal journal = ApplicationContext.getInstance()
+				.getJournal();
+		List<HandleWriteResult> failures = new ArrayList<HandleWriteResult>();
+		long trackingId = 0;
+		boolean journalFailed = false;
+		try {
+			StringWriter writer = new StringWriter();
+			JsonGenerator json = jsonFactory.createGenerator(writer);
+			json.writeStartObject();
+			json.writeArrayFieldStart("handles");
+			HandleRecordReader reader = new HandleRecordReader(
+					this.jsonFactory.createParser(requestBody), hsAdapter);
+			int recordNumber = 0;
+			while (true) {
+				HandleReference hr;
+				try {
+					hr = reader.next();
+				} catch (Exception exc) {
+					// records read so far stay accepted; report the
+					// remainder of the request as failed
+					logger.error(exc);
+					failures.add(HandleWriteResult.failed(null, 400,
+							exc.getMessage()).forRecord(recordNumber));
+					break;
+				}
+				if (hr == null)
+					break;
+				int position = recordNumber++;
+				HandleWriteResult failure;
+				try {
+					boolean generated = hr.hasNoName();
+					failure = prepareBulkEntry(hr, prefix, generator);
+					if (failure == null)
+						trackingId = journal.append(RegistrationJournal.encode(
+								hr.getHandle(), hr.getHandleValues(),
+								generated));
+				} catch (IllegalArgumentException exc) {
+					// record too large for the journal
+					failure = HandleWriteResult.failed(hr.getHandle(), 413,
+							exc.getMessage());
+				} catch (HandleException exc) {
+					failure = HandleWriteResult.failed(hr.getHandle(), 400,
+							exc.toString());
+				} catch (IOException exc) {
+					// the journal cannot take any more records; report the
+					// remainder of the request as failed
+					logger.error("Cannot append to registration journal", exc);
+					failures.add(HandleWriteResult.failed(hr.getHandle(), 503,
+							exc.toString()).forRecord(position));
+					journalFailed = true;
+					break;
+				} catch (RuntimeException exc) {
+					logger.error(exc.getMessage(), exc);
+					failure = HandleWriteResult.failed(hr.getHandle(), 500,
+							exc.toString());
+				}
+				if (failure == null)
+					json.writeString(hr.getHandle());
+				else failures.add(failure.forRecord(position));
+			}
+			json.writeEndArray();
+			json.writeArrayFieldStart("failed");
+			for (HandleWriteResult failure : failures) {
+				writeResult(json, failure);
+			}
+			json.writeEndArray();
+			if (trackingId == 0) {
+				json.writeEndObject();
+				json.close();
+				return Response.status(journalFailed ? 503 : 400)
+						.entity(writer.toString())
+						.type(MediaType.APPLICATION_JSON).build();
+			}
+			// all records of the request become durable with a single sync
+			journal.sync(trackingId);
+			json.writeNumberField("tracking_id", trackingId);
+			json.writeEndObject();
+			json.close();
+			return Response
+					.status(Response.Status.ACCEPTED)
+					.entity(writer.toString())
+					.type(MediaType.APPLICATION_JSON)
+					.location(
+							uriInfo.getBaseUriBuilder().path("registrations")
+									.path(Long.toString(trackingId)).build())
+					.build();
+		} catch (IOException exc) {
+			logger.error(exc.getMessage(), exc);
+			throw new WebApplicationException(exc, 500);
+		}
+	}
+
+	/**
+	 * @param generatorName
+	 *            value of the "generator" query parameter; empty string for
+	 *            the default generator
+	 * @throws WebApplicationException
+	 *             with status 400 if there is no such generator
+	 */
+	private IdentifierNameGenerator getGenerator(String generatorName) {
+		if (generatorName.equals(""))
+			return ApplicationContext.getInstance()
 					.getDefaultIdentifierNameGenerator();
-		} else
-			generator = IdentifierNameGeneratorFactory
-					.fromString(generatorName);
-		return createHandles(prefix, generator, requestBody);
+		try {
+			return IdentifierNameGeneratorFactory.fromString(generatorName);
+		} catch (IllegalArgumentException exc) {
+			throw new WebApplicationException(exc, 400);
+		}
 	}
 
 	@PUT
@@ -141,7 +381,7 @@ public class HandleRootResource {
 		logger.debug("PUT on specific handle...");
 		// replace a particular Handle
 		HandleReference handleref = new HandleReference(prefix + "/" + suffix);
-		Vector<HandleReference> hrefVec;
+		List<HandleReference> hrefVec;
 		try {
 			hrefVec = parseJSONHandleValues(requestBody);
 		} catch (IOException exc) {
@@ -150,7 +390,7 @@ public class HandleRootResource {
 		}
 		catch (HandleException exc) {
 			logger.error(exc);
-			throw new WebApplicationException(exc, 500);
+			throw HandleTimeoutExceptionMapper.wrap(exc, 500);
 		}
 		if (hrefVec.size() != 1) {
 			logger.debug("Must supply exactly 1 handle record. Size was: "
@@ -175,178 +415,176 @@ public class HandleRootResource {
 	/**
 	 * Creates a single Handle.
 	 * 
+	 * In optimistic create mode, the Handle is created right away and only
+	 * resolved if it turns out to exist already, so creating a new Handle
+	 * costs a single round trip. Otherwise, it is resolved first to decide
+	 * between creating and overwriting it.
+	 * 
 	 * @param handleref
 	 *            is assumed to be complete, i.e. full Handle name and value
 	 *            record.
 	 * @param ifMatch
-	 *            value of the if-Match HTTP header or empty string.
+	 *            value of the if-Match HTTP header or empty string. Either "*"
+	 *            or a list of ETags as returned by GET, one of which must match
+	 *            the current record.
 	 * @param ifNoneMatch
-	 *            value of the if-None-Match HTTP header or empty string.
+	 *            value of the if-None-Match HTTP header or empty string. Either
+	 *            "*" or a list of ETags, none of which may match the current
+	 *            record.
 	 * @return true if the Handle was newly created, false if it existed and was
 	 *         successfully overwritten
+	 * @throws WebApplicationException
+	 *             with status 412 if a precondition fails
 	 */
-	private boolean createSingleHandle(HandleReference handleref,
+	protected boolean createSingleHandle(HandleReference handleref,
 			String ifMatch, String ifNoneMatch) {
-		Vector<HandleValueWrapper> hvNew = handleref.getValues();
+		HandleValue[] handlevalues = handleref.getHandleValues();
+		CreateStatistics statistics = ApplicationContext.getInstance()
+				.getCreateStatistics();
 		try {
-			HandleValue hvAdmin = hsAdapter.createAdminValue(
-					this.authInfo.getAdminHandle(),
-					this.authInfo.getKeyIndex(), DEFAULT_ADMIN_VALUE_INDEX);
+			// If-Match requires an existing record, so it always takes the
+			// checked path
+			if (ApplicationContext.getInstance().isOptimisticCreate()
+					&& (ifMatch.length() == 0)) {
+				try {
+					createHandle(handleref.getHandle(), handlevalues);
+					statistics.optimisticCreate();
+					return true;
+				} catch (HandleException exc) {
+					if (exc.getCode() != HandleException.HANDLE_ALREADY_EXISTS)
+						throw exc;
+					statistics.optimisticFallback();
+				}
+			}
+			// the overwrite and any preconditions must be computed against
+			// the current record, not a cached copy
+			ApplicationContext.getInstance().getResolutionCache()
+					.invalidate(handleref.getHandle());
 			// check if handle exists
-			boolean doCreate = false;
 			HandleValue[] hvOrig = null;
 			try {
 				hvOrig = hsAdapter.resolveHandle(handleref.getHandle(), null,
 						null);
 			} catch (HandleException exc) {
-				doCreate = true;
-			}
-			if (doCreate) {
+				// a timeout tells nothing about whether the Handle exists
+				if (exc instanceof HandleTimeoutException)
+					throw exc;
 				// handle did not exist; check for precondition
-				if (ifMatch.equals("*")) {
+				if (ifMatch.length() > 0) {
 					throw new WebApplicationException(412);
 					// Handle does not exist, but If-Match header was set
 				}
-				// create handle with new values
-				boolean hvNewContainsAdminValue = false;
-				for (HandleValueWrapper hv : hvNew) {
-					if (hv.getType().equals("HS_ADMIN")) {
-						hvNewContainsAdminValue = true;
-						break;
-					}
-				}
-				if (!hvNewContainsAdminValue) {
-					// add admin handle value if none present in new values yet
-					hvNew.add(new HandleValueWrapper(hvAdmin));
-				}
-				// transform hvNew to array
-				HandleValue[] handlevalues = new HandleValue[hvNew.size()];
-				for (int i = 0; i < hvNew.size(); i++) {
-					handlevalues[i] = hvNew.get(i).getHandleValue();
-				}
-				logger.debug("Creating Handle " + handleref.getHandle()
-						+ " with values " + Arrays.toString(handlevalues));
-				hsAdapter.createHandle(handleref.getHandle(), handlevalues);
+				createHandle(handleref.getHandle(), handlevalues);
+				statistics.checkedCreate();
 				return true;
-			} else {
-				// handle exists already; check for precondition
-				if (ifNoneMatch.equals("*")) {
+			}
+			// handle exists already; check for preconditions
+			if ((ifMatch.length() > 0) || (ifNoneMatch.length() > 0)) {
+				String etag = HandleETag.compute(hvOrig);
+				if ((ifMatch.length() > 0)
+						&& !HandleETag.matches(ifMatch, etag, false)) {
 					throw new WebApplicationException(412);
-					// Handle exists, but If-None-Match header was set
+					// Handle was modified since the client retrieved it
 				}
-				// clear all handle values and replace with new values
-				// make sure we don't remove any HS_ADMIN values
-				HandleValue[] hvOrigClean = new HandleValue[hvOrig.length];
-				int j = 0;
-				for (int i = 0; i < hvOrig.length; i++) {
-					if (hvOrig[i].getTypeAsString().equals("HS_ADMIN")) {
-						continue;
-					}
-					hvOrigClean[j] = hvOrig[i];
-					j++;
-				}
-				if (j > 0) {
-					// remove old non-admin handle values
-					HandleValue[] hvOrigCleanCopied = new HandleValue[j];
-					System.arraycopy(hvOrigClean, 0, hvOrigCleanCopied, 0, j);
-					hsAdapter.deleteHandleValues(handleref.getHandle(),
-							hvOrigCleanCopied);
+				if ((ifNoneMatch.length() > 0)
+						&& HandleETag.matches(ifNoneMatch, etag, true)) {
+					throw new WebApplicationException(412);
+					// Handle exists (in the given version), but
+					// If-None-Match header was set
 				}
-				// transform hvNew to array
-				HandleValue[] handlevalues = new HandleValue[hvNew.size()];
-				for (int i = 0; i < hvNew.size(); i++) {
-					handlevalues[i] = hvNew.get(i).getHandleValue();
+			}
+			if (overwriteHandle(handleref.getHandle(), hvOrig, handlevalues))
+				statistics.checkedOverwrite();
+			else statistics.unchangedOverwrite();
+			return false;
+		} catch (HandleException exc) {
+			logger.error(exc.getMessage(), exc);
+			if (exc.getCode() == HandleException.INVALID_VALUE)
+				throw new WebApplicationException(exc, 400);
+			throw HandleTimeoutExceptionMapper.wrap(exc, 500);
+		}
+	}
+
+	/**
+	 * Creates a Handle under a name generated for it. A generated name is
+	 * never used to overwrite an existing Handle: if it is taken, the record
+	 * gets a new name from the generator and the create is retried.
+	 * 
+	 * @param handleref
+	 *            record named by the given generator; renamed on collisions
+	 * @throws WebApplicationException
+	 *             with status 500 if no free name was found
+	 */
+	private void createGeneratedHandle(HandleReference handleref,
+			String prefix, IdentifierNameGenerator generator) {
+		HandleValue[] handlevalues = handleref.getHandleValues();
+		try {
+			for (int attempt = 1;; attempt++) {
+				try {
+					createHandle(handleref.getHandle(), handlevalues);
+					return;
+				} catch (HandleException exc) {
+					if ((exc.getCode() != HandleException.HANDLE_ALREADY_EXISTS)
+							|| (attempt == MAX_GENERATED_NAME_ATTEMPTS))
+						throw exc;
+					logger.warn("Generated name " + handleref.getHandle()
+							+ " is taken; generating a new one");
+					handleref.setHandle(generator.generateName(prefix));
 				}
-				// add new handle values
-				logger.debug("Adding values to Handle " + handleref.getHandle()
-						+ ": " + Arrays.toString(handlevalues));
-				hsAdapter.addHandleValues(handleref.getHandle(), handlevalues);
-				return false;
 			}
 		} catch (HandleException exc) {
 			logger.error(exc.getMessage(), exc);
-			throw new WebApplicationException(exc, 500);
+			throw HandleTimeoutExceptionMapper.wrap(exc, 500);
 		}
 	}
 
-	protected Vector<HandleReference> parseJSONHandleValues(String requestData)
-			throws JsonParseException, IOException, HandleException {
-		/*
-		 * The method will replace all current values on the handle with the
-		 * given values (JSON encoded) plus an admin handle value
-		 */
-		JsonParser json = this.jsonFactory.createJsonParser(requestData);
-		// parse JSON. Variations exist. First, find out if base entity is array
-		// or object.
-		JsonToken baseEle = json.nextToken();
-		if (baseEle == null) {
-			throw new JsonParseException(
-					"JSON format error - no base element found / empty content in request!",
-					json.getCurrentLocation());
+	/**
+	 * Creates a new Handle, adding an admin value for the configured admin
+	 * Handle unless the new values contain one already.
+	 */
+	private void createHandle(String handle, HandleValue[] handlevalues)
+			throws HandleException {
+		handlevalues = ApplicationContext.getInstance().withAdminValue(
+				handlevalues);
+		logger.debug("Creating Handle " + handle + " with values "
+				+ Arrays.toString(handlevalues));
+		hsAdapter.createHandle(handle, handlevalues);
+	}
+
+	/**
+	 * Replaces the values of an existing Handle with new values, touching only
+	 * the values that actually change: at most one delete, one update and one
+	 * add call are issued, none if the record is unchanged. HS_ADMIN values
+	 * not mentioned in the new values are kept.
+	 * 
+	 * @return false if the record was unchanged and nothing was written
+	 */
+	private boolean overwriteHandle(String handle, HandleValue[] hvOrig,
+			HandleValue[] handlevalues) throws HandleException {
+		HandleRecordDiff diff = HandleRecordDiff.compute(hvOrig, handlevalues);
+		if (diff.isEmpty()) {
+			logger.debug("Handle " + handle + " is unchanged");
+			return false;
 		}
-		if (baseEle.equals(JsonToken.START_ARRAY)) {
-			// array-based JSON. Will contain only one Handle with multiple
-			// values. Iterate all elements of the array.
-			Vector<HandleValue> hvNew = new Vector<HandleValue>();
-			JsonToken ele = json.nextToken();
-			while (!ele.equals(JsonToken.END_ARRAY)) {
-				if (ele.equals(JsonToken.START_OBJECT)) {
-					// read fields: index, type, data
-					int index = 0;
-					String type = null;
-					String data = null;
-					JsonToken field = json.nextToken();
-					while (!field.equals(JsonToken.END_OBJECT)) {
-						if (!field.equals(JsonToken.FIELD_NAME))
-							throw new JsonParseException(
-									"JSON format error - expected field name",
-									json.getCurrentLocation());
-						String fieldName = json.getText();
-						if (fieldName.equalsIgnoreCase("idx")) {
-							json.nextToken();
-							index = json.getIntValue();
-						} else if (fieldName.equalsIgnoreCase("type")) {
-							json.nextToken();
-							type = json.getText();
-						} else if (fieldName.equalsIgnoreCase("data")) {
-							// decode base64 later.. for now, we save text
-							json.nextToken();
-							data = json.getText();
-						} else throw new JsonParseException("Invalid/unexpected field name: "+fieldName, json.getCurrentLocation());
-						field = json.nextToken();
-					}
-					// check read values
-					if ((type == null) || (data == null))
-						throw new JsonParseException(
-								"JSON format error - must specify all of index, type and data",
-								json.getCurrentLocation());
-					if (index < 0)
-						throw new JsonParseException("Illegal index value ("
-								+ index + ") - must be positive",
-								json.getCurrentLocation());
-					// now decode base64 data if applicable
-					// values are ok; now assign HandleValue
-					hvNew.add(hsAdapter.createHandleValue(index, type, data));
-				} else
-					throw new JsonParseException(
-							"JSON format error - expected start of an object",
-							json.getCurrentLocation());
-				ele = json.nextToken();
-			}
-			Vector<HandleReference> res = new Vector<HandleReference>(1);
-			HandleReference handleref = new HandleReference("");
-			handleref.addValues(hvNew);
+		logger.debug("Changing Handle " + handle + ": " + diff);
+		diff.apply(hsAdapter, handle);
+		return true;
+	}
+
+	protected List<HandleReference> parseJSONHandleValues(String requestData)
+			throws JsonParseException, IOException, HandleException {
+		long start = System.nanoTime();
+		HandleRecordReader reader = new HandleRecordReader(
+				this.jsonFactory.createParser(requestData), hsAdapter);
+		// most requests carry a single record
+		List<HandleReference> res = new ArrayList<HandleReference>(1);
+		HandleReference handleref;
+		while ((handleref = reader.next()) != null) {
 			res.add(handleref);
-			return res;
-		} else if (baseEle.equals(JsonToken.START_OBJECT)) {
-			// TODO: object-based JSON. This is what EPIC API uses.
-			throw new JsonParseException(
-					"Using an object as the JSON base element is not yet implemented!",
-					json.getCurrentLocation());
-		} else
-			throw new JsonParseException(
-					"Base JSON element must be an Array or an Object!",
-					json.getCurrentLocation());
+		}
+		ApplicationContext.getInstance().getMetrics().phase("parse")
+				.recordSince(start);
+		return res;
 	}
 
 	/**
@@ -364,53 +602,36 @@ public class HandleRootResource {
 	 *            parameter must be specified.
 	 */
 	private Response createHandles(String prefix,
-			IdentifierNameGenerator generator, String requestBody) {
-		// parse json; must contain handle values, but not different Handle
-		// entries.
-		Vector<HandleReference> hrMultiple;
+			IdentifierNameGenerator generator, InputStream requestBody) {
+		// parse json incrementally; look ahead one record to tell a single
+		// Handle from a bulk request
+		HandleRecordReader reader;
+		HandleReference first;
+		HandleReference second;
 		try {
-			hrMultiple = parseJSONHandleValues(requestBody);
+			reader = new HandleRecordReader(
+					this.jsonFactory.createParser(requestBody), hsAdapter);
+			first = reader.next();
+			second = (first != null) ? reader.next() : null;
 		} catch (Exception exc) {
 			logger.error(exc);
 			throw new WebApplicationException(exc, 400);
 		}
-		if (hrMultiple.size() > 1) {
-			// Create multiple Handles
-			if (prefix == null) {
-				// no prefix; thus all HandleReferences must be complete
-				for (HandleReference hr : hrMultiple) {
-					if (!hr.hasProperName()) {
-						throw new WebApplicationException(400);
-					}
-				}
-			} else {
-				// prefix specified; all HandleReferences must be either empty
-				// or contain the given prefix
-				for (HandleReference hr : hrMultiple) {
-					if (!hr.hasNoName() && !hr.getPrefix().equals(prefix)) {
-						throw new WebApplicationException(400);
-					}
-				}
-			}
-			// now create handles
-			// TODO: multipart response
-			for (HandleReference hr : hrMultiple) {
-				if (hr.hasNoName()) {
-					hr.setHandle(generator.generateName(prefix));
-				}
-				createSingleHandle(hr, "", "");
-			}
-			return Response.noContent().build();
-		} else if (hrMultiple.size() == 1) {
+		if (second != null) {
+			return createHandlesStreaming(prefix, generator, reader, first,
+					second);
+		} else if (first != null) {
 			// Create a single Handle
-			HandleReference singlehandle = hrMultiple.get(0);
+			HandleReference singlehandle = first;
 			if ((prefix == null) && !singlehandle.hasProperName()) {
 				// no prefix given, so generator cannot be used, but also no
 				// name in json record given!
 				throw new WebApplicationException(400);
 			}
-			if (!singlehandle.hasNoName()
-					&& !singlehandle.getPrefix().equals(prefix)) {
+			if ((prefix != null)
+					&& !singlehandle.hasNoName()
+					&& (!singlehandle.hasProperName() || !singlehandle
+							.getPrefix().equals(prefix))) {
 				// prefix given in both json data and query, but they don't
 				// match!
 				throw new WebApplicationException(400);
@@ -418,6 +639,8 @@ public class HandleRootResource {
 			// okay, all checks are done, no we can safely proceed
 			if (!singlehandle.hasProperName()) {
 				singlehandle.setHandle(generator.generateName(prefix));
+				createGeneratedHandle(singlehandle, prefix, generator);
+				return Response.created(singlehandle.buildUri(uriInfo)).build();
 			}
 			boolean created = createSingleHandle(singlehandle, "", "");
 			if (created) {
@@ -428,4 +651,238 @@ public class HandleRootResource {
 			throw new WebApplicationException(400);
 		}
 	}
-}
+
+	/**
+	 * Creates multiple Handles concurrently while the request is still being
+	 * parsed. Each record is handed to the bulk worker pool as soon as it has
+	 * been read. At most twice as many records as there are workers are kept
+	 * in flight; beyond that, parsing pauses until writes complete, which
+	 * throttles the client to the rate the Handle System accepts writes.
+	 * 
+	 * Each record is checked and written independently; the response reports
+	 * the outcome per record instead of aborting on the first failure. The
+	 * per-record results are spooled to a temporary file so that neither the
+	 * request nor the response is held in memory.
+	 * 
+	 * @param reader
+	 *            reader positioned after the given two records
+	 */
+	private Response createHandlesStreaming(final String prefix,
+			final IdentifierNameGenerator generator, HandleRecordReader reader,
+			HandleReference first, HandleReference second) {
+		ApplicationContext context = ApplicationContext.getInstance();
+		CompletionService<HandleWriteResult> completion = new ExecutorCompletionService<HandleWriteResult>(
+				context.getBulkExecutor());
+		int window = 2 * context.getBulkConcurrency();
+		File spool;
+		try {
+			spool = File.createTempFile("handle-rest-bulk", ".json");
+		} catch (IOException exc) {
+			logger.error(exc.getMessage(), exc);
+			throw new WebApplicationException(exc, 500);
+		}
+		boolean spooled = false;
+		JsonGenerator json = null;
+		OutputStream spoolStream = null;
+		try {
+			spoolStream = new BufferedOutputStream(new FileOutputStream(spool));
+			json = this.jsonFactory.createGenerator(spoolStream,
+					JsonEncoding.UTF8);
+			json.writeStartArray();
+			int outstanding = 0;
+			int recordNumber = 0;
+			HandleReference hr = first;
+			while (hr != null) {
+				// block until a slot in the window becomes free
+				while (outstanding >= window) {
+					writeResult(json, takeResult(completion));
+					outstanding--;
+				}
+				final HandleReference record = hr;
+				final int position = recordNumber++;
+				completion.submit(new Callable<HandleWriteResult>() {
+					public HandleWriteResult call() {
+						return createBulkEntry(record, prefix, generator)
+								.forRecord(position);
+					}
+				});
+				outstanding++;
+				// write out whatever has completed meanwhile
+				Future<HandleWriteResult> done;
+				while ((done = completion.poll()) != null) {
+					writeResult(json, getResult(done));
+					outstanding--;
+				}
+				if (second != null) {
+					hr = second;
+					second = null;
+				} else {
+					try {
+						hr = reader.next();
+					} catch (Exception exc) {
+						// records read so far are still written; report the
+						// remainder of the request as failed
+						logger.error(exc);
+						writeResult(json, HandleWriteResult.failed(null, 400,
+								exc.getMessage()).forRecord(recordNumber));
+						hr = null;
+					}
+				}
+			}
+			while (outstanding > 0) {
+				writeResult(json, takeResult(completion));
+				outstanding--;
+			}
+			json.writeEndArray();
+			json.close();
+			json = null;
+			spoolStream = null;
+			spooled = true;
+		} catch (IOException exc) {
+			logger.error(exc.getMessage(), exc);
+			throw new WebApplicationException(exc, 500);
+		} finally {
+			if (!spooled) {
+				// also on runtime exceptions, e.g. when interrupted
+				closeQuietly(json, spoolStream);
+				spool.delete();
+			}
+		}
+		final File results = spool;
+		return Response.status(MULTI_STATUS).type(MediaType.APPLICATION_JSON)
+				.entity(new StreamingOutput() {
+					public void write(OutputStream output) throws IOException {
+						InputStream in = new FileInputStream(results);
+						try {
+							byte[] buffer = new byte[8192];
+							int n;
+							while ((n = in.read(buffer)) >= 0) {
+								output.write(buffer, 0, n);
+							}
+						} finally {
+							in.close();
+							results.delete();
+						}
+					}
+				}).build();
+	}
+
+	private static void closeQuietly(JsonGenerator json, OutputStream stream) {
+		try {
+			if (json != null)
+				json.close();
+		} catch (IOException exc) {
+			logger.warn("Cannot close spool file", exc);
+		}
+		try {
+			// closing twice is harmless if the generator closed it already
+			if (stream != null)
+				stream.close();
+		} catch (IOException exc) {
+			logger.warn("Cannot close spool file", exc);
+		}
+	}
+
+	private static HandleWriteResult takeResult(
+			CompletionService<HandleWriteResult> completion) {
+		try {
+			return getResult(completion.take());
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new WebApplicationException(exc, 503);
+		}
+	}
+
+	private static HandleWriteResult getResult(Future<HandleWriteResult> done) {
+		try {
+			return done.get();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new WebApplicationException(exc, 503);
+		} catch (ExecutionException exc) {
+			// createBulkEntry does not throw; treat as internal error
+			logger.error(exc.getMessage(), exc);
+			return HandleWriteResult.failed(null, 500, exc.getCause()
+					.toString());
+		}
+	}
+
+	/**
+	 * Checks and writes a single record of a bulk request. Never throws;
+	 * failures are reported in the returned result.
+	 * 
+	 * @param hr
+	 *            record to write; its name may be empty if a prefix is given
+	 * @param prefix
+	 *            String with a prefix or null
+	 * @param generator
+	 *            Generator to use for records without a name
+	 */
+	private HandleWriteResult createBulkEntry(HandleReference hr,
+			String prefix, IdentifierNameGenerator generator) {
+		try {
+			boolean generated = hr.hasNoName();
+			HandleWriteResult failure = prepareBulkEntry(hr, prefix, generator);
+			if (failure != null)
+				return failure;
+			if (generated) {
+				createGeneratedHandle(hr, prefix, generator);
+				return HandleWriteResult.created(hr.getHandle());
+			}
+			if (createSingleHandle(hr, "", ""))
+				return HandleWriteResult.created(hr.getHandle());
+			else
+				return HandleWriteResult.overwritten(hr.getHandle());
+		} catch (WebApplicationException exc) {
+			String reason = (exc.getCause() != null) ? exc.getCause()
+					.toString() : "HTTP status "
+					+ exc.getResponse().getStatus();
+			return HandleWriteResult.failed(hr.getHandle(), exc.getResponse()
+					.getStatus(), reason);
+		} catch (RuntimeException exc) {
+			logger.error(exc.getMessage(), exc);
+			return HandleWriteResult.failed(hr.getHandle(), 500,
+					exc.toString());
+		}
+	}
+
+	/**
+	 * Checks the name of a record of a bulk request against the request's
+	 * prefix and generates a name if it has none.
+	 * 
+	 * @return a failed result if the record cannot be written, otherwise null
+	 */
+	private HandleWriteResult prepareBulkEntry(HandleReference hr,
+			String prefix, IdentifierNameGenerator generator) {
+		if (prefix == null) {
+			// no prefix; the record must be complete
+			if (hr.hasNoName() || !hr.hasProperName())
+				return HandleWriteResult.failed(hr.getHandle(), 400,
+						"No full Handle name given");
+		} else if (!hr.hasNoName()
+				&& (!hr.hasProperName() || !hr.getPrefix().equals(prefix))) {
+			// prefix specified; record must be either empty or contain the
+			// given prefix
+			return HandleWriteResult.failed(hr.getHandle(), 400,
+					"Handle name does not match prefix " + prefix);
+		}
+		if (hr.hasNoName()) {
+			hr.setHandle(generator.generateName(prefix));
+		}
+		return null;
+	}
+
+	private static void writeResult(JsonGenerator json,
+			HandleWriteResult result) throws IOException {
+		json.writeStartObject();
+		if (result.getRecord() >= 0)
+			json.writeNumberField("record", result.getRecord());
+		json.writeStringField("handle", result.getHandle());
+		json.writeStringField("status", result.getStatus().name()
+				.toLowerCase());
+		json.writeNumberField("status_code", result.getStatusCode());
+		if (result.getReason() != null)
+			json.writeStringField("reason", result.getReason());
+		json.writeEndObject();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,40 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import net.handle.hdllib.HandleException;
+
+import de.dkrz.infra.pid.handle.rest.core.HandleTimeoutException;
+import de.dkrz.infra.pid.handle.rest.core.HandleWriteResult;
+
+/**
+ * Answers requests whose Handle System call timed out with 504 Gateway
+ * Timeout, or with 503 Service Unavailable if it could not be started
+ * because all backend threads were busy.
+ */
+@Provider
+public class HandleTimeoutExceptionMapper implements
+		ExceptionMapper<HandleTimeoutException> {
+
+	public Response toResponse(HandleTimeoutException exc) {
+		return Response.status(HandleWriteResult.statusCode(exc)).build();
+	}
+
+	/**
+	 * Wraps a Handle System failure for a resource method that does not
+	 * declare it, keeping a timeout a 504 and a busy backend a 503.
+	 *
+	 * @param status
+	 *            status to answer any other failure with
+	 */
+	static WebApplicationException wrap(HandleException exc, int status) {
+		if (exc instanceof HandleTimeoutException)
+			return new WebApplicationException(exc,
+					HandleWriteResult.statusCode(exc));
+		return new WebApplicationException(exc, status);
+	}
+
+}
@@ -0,0 +1,115 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import net.handle.hdllib.HandleException;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleImport;
+
+/**
+ * Imports records from newline-delimited JSON, one record per line in the
+ * same shape as returned by a single GET or by the export.
+ *
+ * An import is identified by a client-chosen name. PUT streams the input into
+ * the import; the records are registered in parallel batches and the byte
+ * offset reached is checkpointed after every batch. If the upload breaks off
+ * or the service restarts, GET returns the checkpoint and the client resumes
+ * with a PUT of the remaining input, passing the checkpoint as "offset", or
+ * simply sends the whole input again. Records that cannot be registered are
+ * counted and listed in a file next to the checkpoint.
+ */
+@Path("imports")
+public class ImportResource {
+
+	private static final Pattern ID_PATTERN = Pattern
+			.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,127}");
+
+	private static final Logger logger = Logger.getLogger(ImportResource.class);
+
+	private JsonFactory jsonFactory = new JsonFactory();
+
+	@PUT
+	@Path("{id}")
+	@Consumes(BulkResolveResource.NDJSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public String runImport(@PathParam("id") String id,
+			@QueryParam("offset") @DefaultValue("0") long offset,
+			InputStream requestBody) throws IOException {
+		if (offset < 0)
+			throw new WebApplicationException(400);
+		HandleImport handleImport = getImport(id, true);
+		try {
+			handleImport.run(requestBody, offset);
+		} catch (IllegalStateException exc) {
+			// running already or resumed past the checkpoint
+			throw new WebApplicationException(Response.status(409)
+					.entity(progress(handleImport)).build());
+		} catch (HandleException exc) {
+			logger.error("Import " + id + " aborted", exc);
+			throw new WebApplicationException(Response.status(503)
+					.entity(progress(handleImport)).build());
+		}
+		return progress(handleImport);
+	}
+
+	@GET
+	@Path("{id}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public String getProgress(@PathParam("id") String id) throws IOException {
+		HandleImport handleImport = getImport(id, false);
+		if (handleImport == null)
+			throw new WebApplicationException(404);
+		return progress(handleImport);
+	}
+
+	private HandleImport getImport(String id, boolean create)
+			throws IOException {
+		if (!ID_PATTERN.matcher(id).matches())
+			throw new WebApplicationException(400);
+		return ApplicationContext.getInstance().getImport(id, create);
+	}
+
+	private String progress(HandleImport handleImport) throws IOException {
+		StringWriter writer = new StringWriter();
+		JsonGenerator json = jsonFactory.createGenerator(writer);
+		json.writeStartObject();
+		json.writeStringField("id", handleImport.getId());
+		json.writeStringField("status", handleImport.getStatus().name()
+				.toLowerCase());
+		json.writeNumberField("checkpoint", handleImport.getCheckpoint());
+		json.writeNumberField("position", handleImport.getPosition());
+		json.writeNumberField("records", handleImport.getRecords());
+		json.writeNumberField("imported", handleImport.getImported());
+		json.writeNumberField("failed", handleImport.getFailed());
+		json.writeNumberField("elapsed_ms", handleImport.getElapsedMillis());
+		json.writeNumberField("records_per_second",
+				handleImport.getRecordsPerSecond());
+		json.writeNumberField("bytes_per_second",
+				handleImport.getBytesPerSecond());
+		json.writeEndObject();
+		json.close();
+		return writer.toString();
+	}
+
+}
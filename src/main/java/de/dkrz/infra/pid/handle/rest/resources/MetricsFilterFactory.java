@@ -0,0 +1,151 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.jersey.api.model.AbstractMethod;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ContainerResponseWriter;
+import com.sun.jersey.spi.container.ResourceFilter;
+import com.sun.jersey.spi.container.ResourceFilterFactory;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.LatencyHistogram;
+import de.dkrz.infra.pid.handle.rest.core.MetricsRegistry;
+
+/**
+ * Measures the latency of every request, from the start of request processing
+ * until the response entity is completely written, and counts responses by
+ * status class and resource method.
+ * 
+ * Register this class with the init parameters
+ * com.sun.jersey.spi.container.ResourceFilters, ContainerRequestFilters and
+ * ContainerResponseFilters. The resource filter only labels the request with
+ * its resource method; timing and counting happen in the container filters,
+ * which also see responses mapped from exceptions thrown by resource methods
+ * and requests that matched no resource ("unmatched").
+ * 
+ * The histogram and counters of each resource method are looked up once,
+ * when Jersey creates the filters, in the metrics of the application context
+ * current at that time; recording a request only touches them.
+ */
+public class MetricsFilterFactory implements ResourceFilterFactory,
+		ContainerRequestFilter, ContainerResponseFilter {
+
+	public static final String LATENCY_METRIC = "handle_rest_request_seconds";
+	public static final String RESPONSE_METRIC = "handle_rest_responses_total";
+
+	private static final String START_PROPERTY = MetricsFilterFactory.class
+			.getName() + ".start";
+	private static final String ENDPOINT_PROPERTY = MetricsFilterFactory.class
+			.getName() + ".endpoint";
+
+	private final MetricsRegistry metrics = ApplicationContext.getInstance()
+			.getMetrics();
+	private final Endpoint unmatched = new Endpoint("unmatched", metrics);
+
+	public List<ResourceFilter> create(AbstractMethod am) {
+		if (!(am instanceof AbstractResourceMethod))
+			return null;
+		String endpoint = am.getResource().getResourceClass().getSimpleName()
+				+ "." + am.getMethod().getName();
+		return Collections.<ResourceFilter> singletonList(new EndpointFilter(
+				new Endpoint(endpoint, metrics)));
+	}
+
+	public ContainerRequest filter(ContainerRequest request) {
+		request.getProperties().put(START_PROPERTY, System.nanoTime());
+		return request;
+	}
+
+	public ContainerResponse filter(ContainerRequest request,
+			final ContainerResponse response) {
+		Object start = request.getProperties().get(START_PROPERTY);
+		if (start == null)
+			return response;
+		final long startNanos = (Long) start;
+		Object matched = request.getProperties().get(ENDPOINT_PROPERTY);
+		final Endpoint endpoint = (matched != null) ? (Endpoint) matched
+				: unmatched;
+		final ContainerResponseWriter writer = response
+				.getContainerResponseWriter();
+		// stop the clock only once the entity is written
+		response.setContainerResponseWriter(new ContainerResponseWriter() {
+			public OutputStream writeStatusAndHeaders(long contentLength,
+					ContainerResponse response) throws IOException {
+				return writer.writeStatusAndHeaders(contentLength, response);
+			}
+
+			public void finish() throws IOException {
+				try {
+					writer.finish();
+				} finally {
+					endpoint.record(startNanos, response.getStatus());
+				}
+			}
+		});
+		return response;
+	}
+
+	/**
+	 * Latency histogram and response counters of a resource method.
+	 */
+	private static class Endpoint {
+
+		private final LatencyHistogram latency;
+		// by status class; index 0 is unused
+		private final AtomicLong[] responses = new AtomicLong[6];
+
+		Endpoint(String endpoint, MetricsRegistry metrics) {
+			String labels = "endpoint=\"" + endpoint + "\"";
+			this.latency = metrics.histogram(LATENCY_METRIC,
+					"Latency of HTTP requests", labels);
+			for (int i = 1; i < responses.length; i++) {
+				responses[i] = metrics.counter(RESPONSE_METRIC,
+						"HTTP responses by status class", labels + ",class=\""
+								+ i + "xx\"");
+			}
+		}
+
+		void record(long startNanos, int status) {
+			latency.recordSince(startNanos);
+			int statusClass = status / 100;
+			if ((statusClass > 0) && (statusClass < responses.length))
+				responses[statusClass].incrementAndGet();
+		}
+	}
+
+	/**
+	 * Labels requests with the resource method they are dispatched to.
+	 */
+	private static class EndpointFilter implements ResourceFilter,
+			ContainerRequestFilter {
+
+		private final Endpoint endpoint;
+
+		EndpointFilter(Endpoint endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		public ContainerRequestFilter getRequestFilter() {
+			return this;
+		}
+
+		public ContainerResponseFilter getResponseFilter() {
+			return null;
+		}
+
+		public ContainerRequest filter(ContainerRequest request) {
+			request.getProperties().put(ENDPOINT_PROPERTY, endpoint);
+			return request;
+		}
+	}
+
+}
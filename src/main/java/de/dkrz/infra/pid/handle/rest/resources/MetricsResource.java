@@ -0,0 +1,26 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+
+/**
+ * Latency histograms and counters in the Prometheus text format.
+ */
+@Path("metrics")
+public class MetricsResource {
+
+	@GET
+	@Produces("text/plain; version=0.0.4")
+	public String getMetrics() throws IOException {
+		StringWriter writer = new StringWriter();
+		ApplicationContext.getInstance().getMetrics().writePrometheus(writer);
+		return writer.toString();
+	}
+
+}
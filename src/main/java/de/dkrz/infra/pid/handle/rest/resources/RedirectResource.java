@@ -0,0 +1,104 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+import org.apache.log4j.Logger;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.LatencyHistogram;
+import de.dkrz.infra.pid.handle.rest.core.RedirectCache;
+
+/**
+ * Sends clients straight to the URL a Handle points to, as a PID resolver
+ * does. Only the URL values of the Handle are resolved and no JSON is
+ * produced; redirect targets are kept in a {@link RedirectCache}.
+ */
+@Path("redirect")
+public class RedirectResource {
+
+	public static final String LATENCY_METRIC = "handle_rest_redirect_seconds";
+
+	private static final String[] URL_TYPES = { "URL" };
+
+	private static final Logger logger = Logger
+			.getLogger(RedirectResource.class);
+
+	private final HSAdapter hsAdapter;
+	private final RedirectCache cache;
+	private final LatencyHistogram hitLatency;
+	private final LatencyHistogram missLatency;
+
+	public RedirectResource() {
+		ApplicationContext context = ApplicationContext.getInstance();
+		// redirect targets are cached here, so resolve past the resolution
+		// cache; writes still invalidate both
+		this.hsAdapter = context.getCoalescingAdapter();
+		this.cache = context.getRedirectCache();
+		this.hitLatency = context.getMetrics().histogram(LATENCY_METRIC,
+				"Latency of redirects", "cache=\"hit\"");
+		this.missLatency = context.getMetrics().histogram(LATENCY_METRIC,
+				"Latency of redirects", "cache=\"miss\"");
+	}
+
+	/**
+	 * Answers with a 302 to the URL value of the Handle with the lowest index.
+	 * Fails with 404 if the Handle does not exist or has no usable URL value.
+	 */
+	@GET
+	@Path("{prefix}/{suffix}")
+	public Response redirect(@PathParam("prefix") String prefix,
+			@PathParam("suffix") String suffix) throws HandleException {
+		long start = System.nanoTime();
+		String handle = prefix + "/" + suffix;
+		URI location = cache.get(handle);
+		if (location != null) {
+			hitLatency.recordSince(start);
+			return Response.status(302).location(location).build();
+		}
+		// misses are timed whether they end in a redirect or a 404
+		try {
+			long stamp = cache.getStamp(handle);
+			HandleValue[] values;
+			try {
+				values = hsAdapter.resolveHandle(handle, URL_TYPES, null);
+			} catch (HandleException exc) {
+				if (exc.getCode() == HandleException.HANDLE_DOES_NOT_EXIST)
+					throw new WebApplicationException(404);
+				throw exc;
+			}
+			HandleValue target = null;
+			for (HandleValue hv : values) {
+				if ((target != null) && (target.getIndex() < hv.getIndex()))
+					continue;
+				try {
+					URI uri = new URI(hv.getDataAsString());
+					if (uri.isAbsolute()) {
+						target = hv;
+						location = uri;
+					}
+				} catch (URISyntaxException exc) {
+					logger.debug("Ignoring malformed URL value "
+							+ hv.getIndex() + " of Handle " + handle);
+				}
+			}
+			if (location == null)
+				throw new WebApplicationException(404);
+			cache.put(handle, location, target, stamp);
+		} finally {
+			missLatency.recordSince(start);
+		}
+		return Response.status(302).location(location).build();
+	}
+
+}
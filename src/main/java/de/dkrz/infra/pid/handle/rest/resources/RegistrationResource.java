@@ -0,0 +1,56 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.RegistrationJournal;
+
+/**
+ * Status of asynchronous registrations, by the tracking id returned when they
+ * were accepted.
+ */
+@Path("registrations")
+public class RegistrationResource {
+
+	private JsonFactory jsonFactory = new JsonFactory();
+
+	/**
+	 * @return "pending" while records of the request still wait in the
+	 *         journal, "processed" once all of them were registered or moved
+	 *         to the dead-letter file
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	@Path("{id}")
+	public String getRegistration(@PathParam("id") long trackingId)
+			throws IOException {
+		RegistrationJournal journal = ApplicationContext.getInstance()
+				.getJournal();
+		// tracking ids are offsets behind records, so never 0
+		if ((journal == null) || (trackingId <= 0)
+				|| (trackingId > journal.getWriteOffset()))
+			throw new WebApplicationException(404);
+		StringWriter writer = new StringWriter();
+		JsonGenerator json = jsonFactory.createGenerator(writer);
+		json.writeStartObject();
+		json.writeNumberField("tracking_id", trackingId);
+		json.writeStringField("status",
+				(journal.getAcknowledgedOffset() >= trackingId) ? "processed"
+						: "pending");
+		json.writeEndObject();
+		json.close();
+		return writer.toString();
+	}
+
+}
@@ -0,0 +1,119 @@
+package de.dkrz.infra.pid.handle.rest.resources;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.CoalescingHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.CreateStatistics;
+import de.dkrz.infra.pid.handle.rest.core.HSAdapterPool;
+import de.dkrz.infra.pid.handle.rest.core.JournalDrainer;
+import de.dkrz.infra.pid.handle.rest.core.RedirectCache;
+import de.dkrz.infra.pid.handle.rest.core.RegistrationJournal;
+import de.dkrz.infra.pid.handle.rest.core.ResolutionCache;
+import de.dkrz.infra.pid.handle.rest.core.TimeLimitedHSAdapter;
+
+/**
+ * Read-only view on runtime statistics of the service, e.g. to size the
+ * resolution cache.
+ */
+@Path("statistics")
+public class StatisticsResource {
+
+	private JsonFactory jsonFactory = new JsonFactory();
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public String getStatistics() throws IOException {
+		ResolutionCache cache = ApplicationContext.getInstance()
+				.getResolutionCache();
+		RedirectCache redirectCache = ApplicationContext.getInstance()
+				.getRedirectCache();
+		CoalescingHSAdapter coalescer = ApplicationContext.getInstance()
+				.getCoalescingAdapter();
+		HSAdapterPool pool = ApplicationContext.getInstance().getAdapterPool();
+		TimeLimitedHSAdapter timeLimited = ApplicationContext.getInstance()
+				.getTimeLimitedAdapter();
+		CreateStatistics creates = ApplicationContext.getInstance()
+				.getCreateStatistics();
+		RegistrationJournal journal = ApplicationContext.getInstance()
+				.getJournal();
+		JournalDrainer drainer = ApplicationContext.getInstance()
+				.getJournalDrainer();
+		StringWriter writer = new StringWriter();
+		JsonGenerator json = jsonFactory.createGenerator(writer);
+		json.writeStartObject();
+		json.writeObjectFieldStart("resolution_cache");
+		json.writeNumberField("size", cache.size());
+		json.writeNumberField("hits", cache.getHits());
+		json.writeNumberField("misses", cache.getMisses());
+		json.writeNumberField("evictions", cache.getEvictions());
+		json.writeNumberField("expirations", cache.getExpirations());
+		json.writeNumberField("invalidations", cache.getInvalidations());
+		json.writeEndObject();
+		json.writeObjectFieldStart("redirect_cache");
+		json.writeNumberField("size", redirectCache.size());
+		json.writeNumberField("hits", redirectCache.getHits());
+		json.writeNumberField("misses", redirectCache.getMisses());
+		json.writeNumberField("evictions", redirectCache.getEvictions());
+		json.writeEndObject();
+		json.writeObjectFieldStart("resolution_coalescing");
+		json.writeNumberField("backend_calls", coalescer.getBackendCalls());
+		json.writeNumberField("coalesced_calls",
+				coalescer.getCoalescedCalls());
+		json.writeEndObject();
+		json.writeObjectFieldStart("create");
+		json.writeBooleanField("optimistic", ApplicationContext.getInstance()
+				.isOptimisticCreate());
+		json.writeNumberField("optimistic_creates",
+				creates.getOptimisticCreates());
+		json.writeNumberField("optimistic_fallbacks",
+				creates.getOptimisticFallbacks());
+		json.writeNumberField("checked_creates", creates.getCheckedCreates());
+		json.writeNumberField("checked_overwrites",
+				creates.getCheckedOverwrites());
+		json.writeNumberField("unchanged_overwrites",
+				creates.getUnchangedOverwrites());
+		json.writeEndObject();
+		if (pool != null) {
+			json.writeObjectFieldStart("adapter_pool");
+			json.writeNumberField("size", pool.getSize());
+			json.writeNumberField("idle", pool.getIdleCount());
+			json.writeNumberField("max_size", pool.getMaxSize());
+			json.writeNumberField("created", pool.getCreatedCount());
+			json.writeNumberField("evicted", pool.getEvictedCount());
+			json.writeNumberField("failed_health_checks",
+					pool.getFailedHealthChecks());
+			json.writeNumberField("borrow_timeouts", pool.getBorrowTimeouts());
+			json.writeEndObject();
+		}
+		if (timeLimited != null) {
+			json.writeObjectFieldStart("backend");
+			json.writeNumberField("timeout_ms", timeLimited.getTimeoutMillis());
+			json.writeNumberField("timeouts", timeLimited.getTimeouts());
+			json.writeEndObject();
+		}
+		if (journal != null) {
+			json.writeObjectFieldStart("registration_journal");
+			json.writeNumberField("written_offset", journal.getWriteOffset());
+			json.writeNumberField("acknowledged_offset",
+					journal.getAcknowledgedOffset());
+			json.writeNumberField("registered", drainer.getRegistered());
+			json.writeNumberField("retries", drainer.getRetries());
+			json.writeNumberField("failed", drainer.getFailed());
+			json.writeEndObject();
+		}
+		json.writeEndObject();
+		json.close();
+		return writer.toString();
+	}
+
+}
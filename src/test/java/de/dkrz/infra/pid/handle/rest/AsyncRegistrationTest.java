@@ -0,0 +1,95 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.test.framework.JerseyTest;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleAuthorizationInfo;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+
+public class AsyncRegistrationTest extends JerseyTest {
+
+	private static final Pattern TRACKING_ID = Pattern
+			.compile("\"tracking_id\":(\\d+)");
+
+	private File directory;
+
+	public AsyncRegistrationTest() {
+		super("de.dkrz.infra.pid.handle.rest.resources");
+	}
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		directory = File.createTempFile("handle-rest-journal", "");
+		directory.delete();
+		ApplicationContext context = new ApplicationContext(
+				new InMemoryHSAdapter(), new HandleAuthorizationInfo("", 300,
+						null, null));
+		context.openJournal(directory, 4096);
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		ApplicationContext.shutdownInstance();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testRespondAsync() throws Exception {
+		String json = "{\"10876/test-async-001\": [{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"}],"
+				+ " \"11111/test-async-002\": [{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.google.de\"}]}";
+		ClientResponse resp = resource().path("/handles/10876")
+				.header("Prefer", "respond-async").type("application/json")
+				.post(ClientResponse.class, json);
+		assertEquals(202, resp.getStatus());
+		String body = resp.getEntity(String.class);
+		assertTrue(body.contains("\"handles\":[\"10876/test-async-001\"]"));
+		// record with foreign prefix is rejected right away
+		assertTrue(body.contains("\"handle\":\"11111/test-async-002\""));
+		Matcher matcher = TRACKING_ID.matcher(body);
+		assertTrue(matcher.find());
+		String trackingId = matcher.group(1);
+		assertTrue(resp.getLocation().getPath()
+				.endsWith("/registrations/" + trackingId));
+		String status = null;
+		long deadline = System.currentTimeMillis() + 10000;
+		while (System.currentTimeMillis() < deadline) {
+			status = resource().path("/registrations/" + trackingId).get(
+					String.class);
+			if (status.contains("\"status\":\"processed\""))
+				break;
+			Thread.sleep(50);
+		}
+		assertTrue(status.contains("\"status\":\"processed\""));
+		HandleReference handleref = resource().path(
+				"/handles/10876/test-async-001").get(HandleReference.class);
+		assertEquals("http://www.dkrz.de", handleref.getValues().get(0)
+				.getParsedData());
+		// unknown tracking ids
+		assertEquals(404, resource().path("/registrations/0")
+				.get(ClientResponse.class).getStatus());
+		assertEquals(404,
+				resource().path("/registrations/" + (Long.parseLong(trackingId) + 1))
+						.get(ClientResponse.class).getStatus());
+	}
+
+}
@@ -0,0 +1,163 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.handle.hdllib.HandleValue;
+
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.BatchHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.HandleReference;
+import de.dkrz.infra.pid.handle.rest.core.HandleResolveResult;
+import de.dkrz.infra.pid.handle.rest.core.HandleWriteResult;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.PipeliningBatchHSAdapter;
+
+public class BatchTest {
+
+	private static List<HandleReference> records(InMemoryHSAdapter store,
+			String... handles) throws Exception {
+		List<HandleReference> records = new ArrayList<HandleReference>();
+		for (String handle : handles) {
+			HandleReference record = new HandleReference(handle);
+			record.addValue(store.createHandleValue(1, "URL",
+					"http://www.dkrz.de/" + handle));
+			record.addValue(store.createHandleValue(2, "EMAIL",
+					"info@dkrz.de"));
+			records.add(record);
+		}
+		return records;
+	}
+
+	/**
+	 * Runs the same operations against a native and a pipelined batch
+	 * adapter; both must report the same results.
+	 */
+	private static void checkBatchOperations(BatchHSAdapter batchAdapter,
+			InMemoryHSAdapter store) throws Exception {
+		store.createHandle("10876/batch-existing", new HandleValue[] { store
+				.createHandleValue(1, "URL", "http://www.dkrz.de") });
+		List<HandleWriteResult> created = batchAdapter.createAll(records(
+				store, "10876/batch-1", "10876/batch-existing",
+				"10876/batch-2"));
+		assertEquals(3, created.size());
+		assertEquals(HandleWriteResult.Status.CREATED, created.get(0)
+				.getStatus());
+		assertEquals(409, created.get(1).getStatusCode());
+		assertEquals(1, created.get(1).getRecord());
+		assertEquals("10876/batch-2", created.get(2).getHandle());
+		assertEquals(2, created.get(2).getRecord());
+
+		List<HandleReference> handles = new ArrayList<HandleReference>();
+		handles.add(new HandleReference("10876/batch-1"));
+		handles.add(new HandleReference("10876/batch-missing"));
+		handles.add(HandleReference.fromRequestPath("2:10876/batch-2", true));
+		List<HandleResolveResult> resolved = batchAdapter.resolveAll(handles);
+		assertEquals(2, resolved.get(0).getValues().length);
+		assertFalse(resolved.get(1).isResolved());
+		assertEquals(404, resolved.get(1).getStatusCode());
+		assertEquals(1, resolved.get(2).getValues().length);
+		assertEquals("EMAIL", resolved.get(2).getValues()[0].getTypeAsString());
+
+		HandleReference update = new HandleReference("10876/batch-1");
+		update.addValue(store.createHandleValue(1, "URL",
+				"http://www.google.de"));
+		List<HandleWriteResult> updated = batchAdapter.updateAll(Arrays
+				.asList(update, new HandleReference("10876/batch-missing")));
+		assertEquals(HandleWriteResult.Status.OVERWRITTEN, updated.get(0)
+				.getStatus());
+		assertEquals(404, updated.get(1).getStatusCode());
+		assertEquals("http://www.google.de", store.resolveHandle(
+				"10876/batch-1", null, new int[] { 1 })[0].getDataAsString());
+
+		List<HandleWriteResult> deleted = batchAdapter.deleteAll(Arrays
+				.asList("10876/batch-1", "10876/batch-missing",
+						"10876/batch-2"));
+		assertEquals(HandleWriteResult.Status.DELETED, deleted.get(0)
+				.getStatus());
+		assertTrue(deleted.get(1).isFailed());
+		assertEquals(HandleWriteResult.Status.DELETED, deleted.get(2)
+				.getStatus());
+		assertEquals(404, batchAdapter.resolveAll(
+				Arrays.asList(new HandleReference("10876/batch-2"))).get(0)
+				.getStatusCode());
+	}
+
+	@Test
+	public void testInMemoryBatch() throws Exception {
+		InMemoryHSAdapter store = new InMemoryHSAdapter();
+		checkBatchOperations(store, store);
+	}
+
+	@Test
+	public void testPipeliningBatch() throws Exception {
+		InMemoryHSAdapter store = new InMemoryHSAdapter();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			checkBatchOperations(new PipeliningBatchHSAdapter(store, executor,
+					2), store);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testPipeliningOverlapsLatency() throws Exception {
+		InMemoryHSAdapter store = new InMemoryHSAdapter();
+		List<HandleReference> handles = new ArrayList<HandleReference>();
+		for (int i = 0; i < 64; i++) {
+			store.createHandle("10876/batch-" + i, new HandleValue[] { store
+					.createHandleValue(1, "URL", "http://www.dkrz.de/" + i) });
+			handles.add(new HandleReference("10876/batch-" + i));
+		}
+		LatencyHSAdapter slow = new LatencyHSAdapter(store, 50);
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			long start = System.currentTimeMillis();
+			List<HandleResolveResult> results = new PipeliningBatchHSAdapter(
+					slow, executor, 16).resolveAll(handles);
+			long elapsed = System.currentTimeMillis() - start;
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals("http://www.dkrz.de/" + i, results.get(i)
+						.getValues()[0].getDataAsString());
+			}
+			assertEquals(64, slow.getResolveCalls());
+			// one after the other would take 3.2 s
+			assertTrue("took " + elapsed + " ms", elapsed < 1600);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testContextBatchBypassesCache() throws Exception {
+		InMemoryHSAdapter store = new InMemoryHSAdapter();
+		ApplicationContext context = new ApplicationContext(store, null);
+		try {
+			List<HandleReference> handles = new ArrayList<HandleReference>();
+			for (int i = 0; i < 16; i++) {
+				store.createHandle("10876/batch-" + i,
+						new HandleValue[] { store.createHandleValue(1, "URL",
+								"http://www.dkrz.de/" + i) });
+				handles.add(new HandleReference("10876/batch-" + i));
+			}
+			List<HandleResolveResult> results = context.getBatchAdapter()
+					.resolveAll(handles);
+			assertEquals("http://www.dkrz.de/15", results.get(15).getValues()[0]
+					.getDataAsString());
+			assertEquals(0, context.getResolutionCache().size());
+		} finally {
+			context.shutdown();
+		}
+	}
+
+}
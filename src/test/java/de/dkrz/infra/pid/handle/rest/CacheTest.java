@@ -0,0 +1,34 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.handle.hdllib.HandleValue;
+
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.ResolutionCache;
+
+public class CacheTest {
+
+	@Test
+	public void testCachedValuesAreNotShared() throws Exception {
+		InMemoryHSAdapter store = new InMemoryHSAdapter();
+		store.createHandle("10876/test-cached",
+				new HandleValue[] { store.createHandleValue(1, "URL",
+						"http://www.dkrz.de") });
+		ResolutionCache cache = new ResolutionCache();
+		HandleValue[] values = store.resolveHandle("10876/test-cached", null,
+				null);
+		cache.put("10876/test-cached", "", values,
+				cache.getStamp("10876/test-cached"));
+		values[0].setTimestamp(0);
+		HandleValue[] cached = cache.get("10876/test-cached", "");
+		cached[0].setData("http://www.google.de".getBytes());
+		cached = cache.get("10876/test-cached", "");
+		assertEquals("http://www.dkrz.de", cached[0].getDataAsString());
+		assertTrue(cached[0].getTimestamp() != 0);
+	}
+
+}
@@ -0,0 +1,103 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.CoalescingHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+
+public class CoalescingTest {
+
+	private static final int NUM_THREADS = 32;
+
+	private InMemoryHSAdapter store;
+	private LatencyHSAdapter backend;
+	private CoalescingHSAdapter coalescer;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new InMemoryHSAdapter();
+		store.createHandle("10876/test-viral",
+				new HandleValue[] { store.createHandleValue(1, "URL",
+						"http://www.dkrz.de") });
+		backend = new LatencyHSAdapter(store, 500);
+		coalescer = new CoalescingHSAdapter(backend);
+	}
+
+	private List<Future<HandleValue[]>> resolveConcurrently(final String handle)
+			throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<HandleValue[]>> results = new ArrayList<Future<HandleValue[]>>();
+		for (int i = 0; i < NUM_THREADS; i++) {
+			results.add(executor.submit(new Callable<HandleValue[]>() {
+				public HandleValue[] call() throws Exception {
+					start.await();
+					return coalescer.resolveHandle(handle, null, new int[0]);
+				}
+			}));
+		}
+		start.countDown();
+		executor.shutdown();
+		return results;
+	}
+
+	@Test
+	public void testConcurrentResolvesShareBackendCall() throws Exception {
+		List<HandleValue> seen = new ArrayList<HandleValue>();
+		for (Future<HandleValue[]> result : resolveConcurrently("10876/test-viral")) {
+			HandleValue[] values = result.get();
+			assertEquals(1, values.length);
+			assertEquals("http://www.dkrz.de", values[0].getDataAsString());
+			// callers must not share value objects
+			for (HandleValue hv : seen)
+				assertNotSame(hv, values[0]);
+			seen.add(values[0]);
+		}
+		assertEquals(1, backend.getResolveCalls());
+		assertEquals(NUM_THREADS - 1, coalescer.getCoalescedCalls());
+	}
+
+	@Test
+	public void testConcurrentResolvesShareException() throws Exception {
+		for (Future<HandleValue[]> result : resolveConcurrently("10876/test-missing")) {
+			try {
+				result.get();
+			} catch (ExecutionException exc) {
+				assertEquals(HandleException.HANDLE_DOES_NOT_EXIST,
+						((HandleException) exc.getCause()).getCode());
+				continue;
+			}
+			throw new AssertionError("Expected resolution to fail");
+		}
+		assertEquals(1, backend.getResolveCalls());
+	}
+
+	@Test
+	public void testResolveAfterWriteIsNotCoalesced() throws Exception {
+		coalescer.resolveHandle("10876/test-viral", null, null);
+		coalescer.updateHandleValues("10876/test-viral",
+				new HandleValue[] { store.createHandleValue(1, "URL",
+						"http://www.google.de") });
+		HandleValue[] values = coalescer.resolveHandle("10876/test-viral",
+				null, null);
+		assertEquals("http://www.google.de", values[0].getDataAsString());
+		assertEquals(2, backend.getResolveCalls());
+	}
+
+}
@@ -2,8 +2,12 @@ package de.dkrz.infra.pid.handle.rest;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
 
 import net.handle.api.HSAdapter;
 
@@ -69,4 +73,258 @@ public class CommonTest extends JerseyTest {
 
 	}
 
+	@Test
+	public void testOverwriteAfterResolve() {
+		WebResource webResource = resource();
+		String json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.google.de\"}]";
+		ClientResponse resp = webResource.path("/handles/10876/test-002")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(201, resp.getStatus());
+		handlesCreated.add("10876/test-002");
+		// resolve twice so the record is served from the cache
+		webResource.path("/handles/10876/test-002").get(HandleReference.class);
+		webResource.path("/handles/10876/test-002").get(HandleReference.class);
+		// overwrite must not be hidden by the cached record
+		json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"}]";
+		resp = webResource.path("/handles/10876/test-002")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(204, resp.getStatus());
+		HandleReference handleref = webResource.path(
+				"/handles/10876/test-002").get(HandleReference.class);
+		assertEquals("http://www.dkrz.de", handleref.getValues().get(0)
+				.getParsedData());
+		// repeating the overwrite leaves the record as it is
+		resp = webResource.path("/handles/10876/test-002")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(204, resp.getStatus());
+		resp = webResource.path("/handles/10876/test-002").get(
+				ClientResponse.class);
+		assertEquals(200, resp.getStatus());
+	}
+
+	@Test
+	public void testAdminValueCannotBeReplaced() {
+		WebResource webResource = resource();
+		String json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"}]";
+		ClientResponse resp = webResource.path("/handles/10876/test-006")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(201, resp.getStatus());
+		handlesCreated.add("10876/test-006");
+		// the admin value was added at index 100
+		json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"},"
+				+ " {\"idx\": 100, \"type\": \"URL\", \"data\":\"http://www.google.de\"}]";
+		resp = webResource.path("/handles/10876/test-006")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(400, resp.getStatus());
+	}
+
+	@Test
+	public void testDuplicateIndexesAreRejected() {
+		WebResource webResource = resource();
+		String json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"}]";
+		ClientResponse resp = webResource.path("/handles/10876/test-007")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(201, resp.getStatus());
+		handlesCreated.add("10876/test-007");
+		json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"},"
+				+ " {\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.google.de\"}]";
+		resp = webResource.path("/handles/10876/test-007")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(400, resp.getStatus());
+	}
+
+	@Test
+	public void testSelectiveResolve() {
+		WebResource webResource = resource();
+		String json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"},"
+				+ " {\"idx\": 2, \"type\": \"EMAIL\", \"data\":\"info@dkrz.de\"}]";
+		ClientResponse resp = webResource.path("/handles/10876/test-004")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(201, resp.getStatus());
+		handlesCreated.add("10876/test-004");
+		HandleReference handleref = webResource.path("/handles/10876/test-004")
+				.queryParam("type", "URL").get(HandleReference.class);
+		assertEquals(1, handleref.getValues().size());
+		assertEquals("http://www.dkrz.de", handleref.getValues().get(0)
+				.getParsedData());
+		handleref = webResource.path("/handles/2:10876/test-004")
+				.get(HandleReference.class);
+		assertEquals("10876/test-004", handleref.getHandle());
+		assertEquals(1, handleref.getValues().size());
+		assertEquals("info@dkrz.de", handleref.getValues().get(0)
+				.getParsedData());
+		// a value is selected if it matches any index or type
+		handleref = webResource.path("/handles/10876/test-004")
+				.queryParam("index", "2").queryParam("type", "URL")
+				.get(HandleReference.class);
+		assertEquals(2, handleref.getValues().size());
+		resp = webResource.path("/handles/10876/test-004")
+				.queryParam("index", "x").get(ClientResponse.class);
+		assertEquals(400, resp.getStatus());
+	}
+
+	@Test
+	public void testRedirect() {
+		WebResource webResource = resource();
+		client().setFollowRedirects(false);
+		String json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"}]";
+		ClientResponse resp = webResource.path("/handles/10876/test-005")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(201, resp.getStatus());
+		handlesCreated.add("10876/test-005");
+		resp = webResource.path("/redirect/10876/test-005").get(
+				ClientResponse.class);
+		assertEquals(302, resp.getStatus());
+		assertEquals("http://www.dkrz.de", resp.getLocation().toString());
+		// the cached target follows an overwrite
+		json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.google.de\"}]";
+		resp = webResource.path("/handles/10876/test-005")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(204, resp.getStatus());
+		resp = webResource.path("/redirect/10876/test-005").get(
+				ClientResponse.class);
+		assertEquals("http://www.google.de", resp.getLocation().toString());
+		resp = webResource.path("/redirect/10876/test-missing").get(
+				ClientResponse.class);
+		assertEquals(404, resp.getStatus());
+	}
+
+	@Test
+	public void testConditionalRequests() {
+		WebResource webResource = resource();
+		String json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.google.de\"}]";
+		ClientResponse resp = webResource.path("/handles/10876/test-003")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(201, resp.getStatus());
+		handlesCreated.add("10876/test-003");
+		resp = webResource.path("/handles/10876/test-003").get(
+				ClientResponse.class);
+		assertEquals(200, resp.getStatus());
+		String etag = "\"" + resp.getEntityTag().getValue() + "\"";
+		// re-poll of an unchanged record
+		resp = webResource.path("/handles/10876/test-003")
+				.header("If-None-Match", etag).get(ClientResponse.class);
+		assertEquals(304, resp.getStatus());
+		// create-only request on an existing Handle is rejected
+		resp = webResource.path("/handles/10876/test-003")
+				.header("If-None-Match", "*").type("application/json")
+				.put(ClientResponse.class, json);
+		assertEquals(412, resp.getStatus());
+		// optimistic concurrency: stale ETag is rejected, current one accepted
+		json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"}]";
+		resp = webResource.path("/handles/10876/test-003")
+				.header("If-Match", "\"0123456789abcdef\"")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(412, resp.getStatus());
+		resp = webResource.path("/handles/10876/test-003")
+				.header("If-Match", etag).type("application/json")
+				.put(ClientResponse.class, json);
+		assertEquals(204, resp.getStatus());
+		// the record changed, so the old ETag no longer matches
+		resp = webResource.path("/handles/10876/test-003")
+				.header("If-None-Match", etag).get(ClientResponse.class);
+		assertEquals(200, resp.getStatus());
+		// the tag of a selection is weak and not valid for If-Match
+		resp = webResource.path("/handles/10876/test-003")
+				.queryParam("type", "URL").get(ClientResponse.class);
+		assertTrue(resp.getEntityTag().isWeak());
+		resp = webResource.path("/handles/10876/test-003")
+				.header("If-Match",
+						"W/\"" + resp.getEntityTag().getValue() + "\"")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(412, resp.getStatus());
+	}
+
+	@Test
+	public void testBulkCreate() {
+		WebResource webResource = resource();
+		String json = "{\"10876/test-bulk-001\": [{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"}],"
+				+ " \"10876/test-bulk-002\": [{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.google.de\"}],"
+				+ " \"11111/test-bulk-003\": [{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.google.de\"}]}";
+		ClientResponse resp = webResource.path("/handles/10876")
+				.type("application/json").post(ClientResponse.class, json);
+		handlesCreated.add("10876/test-bulk-001");
+		handlesCreated.add("10876/test-bulk-002");
+		assertEquals(207, resp.getStatus());
+		String multiStatus = resp.getEntity(String.class);
+		assertTrue(multiStatus.contains("\"handle\":\"10876/test-bulk-001\",\"status\":\"created\""));
+		assertTrue(multiStatus.contains("\"handle\":\"10876/test-bulk-002\",\"status\":\"created\""));
+		// record with foreign prefix fails, but does not abort the others
+		assertTrue(multiStatus.contains("\"handle\":\"11111/test-bulk-003\",\"status\":\"failed\",\"status_code\":400"));
+		HandleReference handleref = webResource.path(
+				"/handles/10876/test-bulk-002").get(HandleReference.class);
+		assertEquals("http://www.google.de", handleref.getValues().get(0)
+				.getParsedData());
+	}
+
+	@Test
+	public void testBulkResolve() {
+		WebResource webResource = resource();
+		String json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"},"
+				+ " {\"idx\": 2, \"type\": \"EMAIL\", \"data\":\"info@dkrz.de\"}]";
+		ClientResponse resp = webResource.path("/handles/10876/test-resolve-001")
+				.type("application/json").put(ClientResponse.class, json);
+		assertEquals(201, resp.getStatus());
+		handlesCreated.add("10876/test-resolve-001");
+		String names = "[\"10876/test-resolve-001\", \"10876/test-missing\", \"10876\"]";
+		String results = webResource.path("/resolve").queryParam("type", "URL")
+				.type("application/json").accept("application/x-ndjson")
+				.post(String.class, names);
+		String[] lines = results.split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(results.contains("\"handle\":\"10876/test-resolve-001\",\"values\":[{\"idx\":1,"));
+		assertTrue(!results.contains("info@dkrz.de"));
+		assertTrue(results.contains("{\"handle\":\"10876/test-missing\",\"status_code\":404"));
+		assertTrue(results.contains("{\"handle\":\"10876\",\"status_code\":400"));
+		// JSON array with the same results
+		results = webResource.path("/resolve").type("application/json")
+				.accept("application/json").post(String.class, names);
+		assertTrue(results.startsWith("[") && results.endsWith("]"));
+		assertTrue(results.contains("info@dkrz.de"));
+	}
+
+	@Test
+	public void testExport() throws Exception {
+		WebResource webResource = resource();
+		String json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"}]";
+		for (String suffix : new String[] { "test-export-001", "test-export-002" }) {
+			ClientResponse resp = webResource.path("/handles/10877/" + suffix)
+					.type("application/json").put(ClientResponse.class, json);
+			assertEquals(201, resp.getStatus());
+			handlesCreated.add("10877/" + suffix);
+		}
+		String export = webResource.path("/export/10877").get(String.class);
+		String[] lines = export.split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(export.contains("{\"handle\":\"10877/test-export-001\",\"values\":["));
+		// compressed on the fly
+		ClientResponse resp = webResource.path("/export/10877")
+				.header("Accept-Encoding", "gzip").get(ClientResponse.class);
+		assertEquals("gzip", resp.getHeaders().getFirst("Content-Encoding"));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(resp.getEntityInputStream()), "UTF-8"));
+		int records = 0;
+		while (reader.readLine() != null)
+			records++;
+		reader.close();
+		assertEquals(2, records);
+	}
+
+	@Test
+	public void testListByPrefix() {
+		WebResource webResource = resource();
+		String json = "[{\"idx\": 1, \"type\": \"URL\", \"data\":\"http://www.dkrz.de\"}]";
+		for (String suffix : new String[] { "test-list-001", "test-list-002" }) {
+			ClientResponse resp = webResource.path("/handles/10876/" + suffix)
+					.type("application/json").put(ClientResponse.class, json);
+			assertEquals(201, resp.getStatus());
+			handlesCreated.add("10876/" + suffix);
+		}
+		String page = webResource.path("/handles/10876")
+				.queryParam("cursor", "10876/test-list-000")
+				.queryParam("limit", "1").get(String.class);
+		assertTrue(page.contains("\"handles\":[\"10876/test-list-001\"]"));
+		assertTrue(page.contains("\"next\":\"10876/test-list-001\""));
+	}
+
 }
@@ -0,0 +1,160 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+
+public class ConcurrentStoreTest {
+
+	private static final int NUM_THREADS = 16;
+
+	private InMemoryHSAdapter store;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		store = new InMemoryHSAdapter();
+		executor = Executors.newFixedThreadPool(NUM_THREADS);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrentCreateIsAtomic() throws Exception {
+		final CyclicBarrier barrier = new CyclicBarrier(NUM_THREADS);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int i = 0; i < NUM_THREADS; i++) {
+			final int n = i;
+			results.add(executor.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					HandleValue hv = store.createHandleValue(1, "URL",
+							"http://www.dkrz.de/" + n);
+					barrier.await();
+					try {
+						store.createHandle("10876/test-concurrent",
+								new HandleValue[] { hv });
+						return true;
+					} catch (HandleException exc) {
+						assertEquals(HandleException.HANDLE_ALREADY_EXISTS,
+								exc.getCode());
+						return false;
+					}
+				}
+			}));
+		}
+		int created = 0;
+		for (Future<Boolean> result : results) {
+			if (result.get())
+				created++;
+		}
+		assertEquals(1, created);
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	public void testConcurrentAddsAreNotLost() throws Exception {
+		store.createHandle("10876/test-concurrent", new HandleValue[] { store
+				.createHandleValue(1, "URL", "http://www.dkrz.de") });
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for (int i = 0; i < NUM_THREADS; i++) {
+			final int index = 100 + i;
+			results.add(executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					store.addHandleValues("10876/test-concurrent",
+							new HandleValue[] { store.createHandleValue(index,
+									"EMAIL", "info@dkrz.de") });
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> result : results)
+			result.get();
+		assertEquals(NUM_THREADS + 1,
+				store.resolveHandle("10876/test-concurrent", null, null).length);
+	}
+
+	@Test
+	public void testResolveSeesWholeUpdates() throws Exception {
+		store.createHandle("10876/test-concurrent", new HandleValue[] {
+				store.createHandleValue(1, "URL", "v0"),
+				store.createHandleValue(2, "URL", "v0") });
+		final AtomicBoolean done = new AtomicBoolean();
+		Future<Void> writer = executor.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				for (int i = 1; i <= 2000; i++) {
+					store.updateHandleValues("10876/test-concurrent",
+							new HandleValue[] {
+									store.createHandleValue(1, "URL", "v" + i),
+									store.createHandleValue(2, "URL", "v" + i) });
+				}
+				done.set(true);
+				return null;
+			}
+		});
+		while (!done.get()) {
+			HandleValue[] values = store.resolveHandle("10876/test-concurrent",
+					null, null);
+			assertEquals(2, values.length);
+			assertEquals(values[0].getDataAsString(),
+					values[1].getDataAsString());
+		}
+		writer.get();
+	}
+
+	@Test
+	public void testWriteAfterDeleteFails() throws Exception {
+		store.createHandle("10876/test-concurrent", new HandleValue[] { store
+				.createHandleValue(1, "URL", "http://www.dkrz.de") });
+		store.deleteHandle("10876/test-concurrent");
+		try {
+			store.updateHandleValues("10876/test-concurrent",
+					new HandleValue[] { store.createHandleValue(1, "URL",
+							"http://www.google.de") });
+			fail("Update of deleted Handle must fail");
+		} catch (HandleException exc) {
+			assertEquals(HandleException.HANDLE_DOES_NOT_EXIST, exc.getCode());
+		}
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void testInjectedFailures() throws Exception {
+		InMemoryHSAdapter failing = new InMemoryHSAdapter(0, 1);
+		try {
+			failing.resolveHandle("10876/test-concurrent", null, null);
+			fail("Injected failure expected");
+		} catch (HandleException exc) {
+			assertEquals(HandleException.SERVER_ERROR, exc.getCode());
+		}
+	}
+
+	@Test
+	public void testTimestamp() throws Exception {
+		long now = System.currentTimeMillis() / 1000;
+		int timestamp = store.createHandleValue(1, "URL", "http://www.dkrz.de")
+				.getTimestamp();
+		assertTrue(Math.abs(timestamp - now) <= 1);
+	}
+
+}
@@ -0,0 +1,72 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.BlockSequence;
+import de.dkrz.infra.pid.handle.rest.core.HashidGenerator;
+import de.dkrz.infra.pid.handle.rest.core.SequentialGenerator;
+import de.dkrz.infra.pid.handle.rest.core.UUIDGenerator;
+
+public class GeneratorTest {
+
+	private File stateFile;
+
+	@Before
+	public void setUp() throws Exception {
+		stateFile = File.createTempFile("handle-rest", ".seq");
+		stateFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		stateFile.delete();
+	}
+
+	@Test
+	public void testUUID() {
+		String name = new UUIDGenerator().generateName("10876");
+		assertTrue(name.matches("10876/[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}"));
+	}
+
+	@Test
+	public void testSequentialNeverReusesAfterRestart() throws Exception {
+		SequentialGenerator generator = new SequentialGenerator(
+				new BlockSequence(stateFile, 10), "node1");
+		assertEquals("10876/node1-0", generator.generateName("10876"));
+		assertEquals("10876/node1-1", generator.generateName("10876"));
+		// restart: the rest of the first block is skipped
+		generator = new SequentialGenerator(new BlockSequence(stateFile, 10),
+				"node1");
+		assertEquals("10876/node1-10", generator.generateName("10876"));
+	}
+
+	@Test
+	public void testHashidUnique() throws Exception {
+		HashidGenerator generator = new HashidGenerator(new BlockSequence(
+				stateFile, 1000), HashidGenerator.DEFAULT_KEY, "");
+		Set<String> names = new HashSet<String>();
+		for (int i = 0; i < 100000; i++) {
+			String name = generator.generateName("10876");
+			assertEquals(14, name.length());
+			assertTrue(names.add(name));
+		}
+	}
+
+	@Test
+	public void testHashidNode() throws Exception {
+		HashidGenerator generator = new HashidGenerator(new BlockSequence(
+				stateFile, 10), HashidGenerator.DEFAULT_KEY, "node1");
+		assertTrue(generator.generateName("10876").matches(
+				"10876/node1-[0-9a-z]{8}"));
+	}
+
+}
@@ -0,0 +1,173 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleAuthorizationInfo;
+import de.dkrz.infra.pid.handle.rest.core.HandleImport;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+
+public class ImportTest {
+
+	private static final int RECORDS = 500;
+
+	private static byte[] input(boolean withMalformedLine) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < RECORDS; i++) {
+			sb.append("{\"handle\":\"10876/import-").append(i)
+					.append("\",\"values\":[{\"idx\":1,\"type\":\"URL\",")
+					.append("\"parsed_data\":\"http://www.dkrz.de/").append(i)
+					.append("\"}]}\n");
+			if (withMalformedLine && (i == RECORDS / 2))
+				sb.append("{\"handle\":\"10876/broken\",\"values\":[\n");
+		}
+		return sb.toString().getBytes("UTF-8");
+	}
+
+	private static File newStateDir() {
+		File dir = new File(System.getProperty("java.io.tmpdir"),
+				"handle-rest-import-test-" + System.nanoTime());
+		dir.mkdirs();
+		return dir;
+	}
+
+	private static ApplicationContext newContext() {
+		return new ApplicationContext(new InMemoryHSAdapter(),
+				new HandleAuthorizationInfo("0.NA/10876", 300, null, null));
+	}
+
+	private static HandleImport newImport(File dir, ApplicationContext context)
+			throws IOException {
+		return new HandleImport(dir, "test", context.getHSAdapter(), context,
+				context.getBulkExecutor(), 64);
+	}
+
+	private static void assertImported(HSAdapter hsAdapter)
+			throws HandleException {
+		for (int i = 0; i < RECORDS; i++) {
+			HandleValue[] values = hsAdapter.resolveHandle("10876/import-" + i,
+					new String[] { "URL" }, null);
+			assertEquals(1, values.length);
+			assertEquals("http://www.dkrz.de/" + i, values[0].getDataAsString());
+		}
+	}
+
+	private static int countLines(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			int lines = 0;
+			while (reader.readLine() != null)
+				lines++;
+			return lines;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return a stream of the first bytes of the input that fails at its end
+	 */
+	private static InputStream brokenAfter(byte[] input, int length) {
+		return new FilterInputStream(new ByteArrayInputStream(input, 0,
+				length)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n < 0)
+					throw new IOException("Connection reset");
+				return n;
+			}
+		};
+	}
+
+	@Test
+	public void testImport() throws Exception {
+		ApplicationContext context = newContext();
+		File dir = newStateDir();
+		byte[] input = input(true);
+		HandleImport handleImport = newImport(dir, context);
+		handleImport.run(new ByteArrayInputStream(input), 0);
+		assertEquals(HandleImport.Status.COMPLETED, handleImport.getStatus());
+		assertEquals(RECORDS + 1, handleImport.getRecords());
+		assertEquals(RECORDS, handleImport.getImported());
+		assertEquals(1, handleImport.getFailed());
+		assertEquals(input.length, handleImport.getCheckpoint());
+		assertTrue(new File(dir, "test.failed").length() > 0);
+		assertImported(context.getHSAdapter());
+	}
+
+	@Test
+	public void testResumeAfterCrash() throws Exception {
+		ApplicationContext context = newContext();
+		File dir = newStateDir();
+		final byte[] input = input(false);
+		try {
+			// connection breaks off after half of the input
+			newImport(dir, context).run(brokenAfter(input, input.length / 2),
+					0);
+			fail("Broken input must abort the import");
+		} catch (IOException exc) {
+			// expected
+		}
+		// the service restarts and picks up the checkpoint
+		HandleImport handleImport = newImport(dir, context);
+		long checkpoint = handleImport.getCheckpoint();
+		assertTrue(checkpoint > 0);
+		assertTrue(checkpoint <= input.length / 2);
+		try {
+			handleImport.run(new ByteArrayInputStream(input), checkpoint + 1);
+			fail("Resuming after the checkpoint must be rejected");
+		} catch (IllegalStateException exc) {
+			// expected
+		}
+		handleImport.run(new ByteArrayInputStream(input, (int) checkpoint,
+				input.length - (int) checkpoint), checkpoint);
+		assertEquals(HandleImport.Status.COMPLETED, handleImport.getStatus());
+		assertEquals(input.length, handleImport.getCheckpoint());
+		assertEquals(0, handleImport.getFailed());
+		assertTrue(handleImport.getImported() < RECORDS);
+		assertImported(context.getHSAdapter());
+	}
+
+	@Test
+	public void testResumeDoesNotRepeatFailures() throws Exception {
+		ApplicationContext context = newContext();
+		File dir = newStateDir();
+		byte[] input = input(true);
+		// the malformed line has been read, but its batch not checkpointed
+		int malformed = new String(input, "UTF-8").indexOf("broken");
+		try {
+			newImport(dir, context).run(brokenAfter(input, malformed + 100),
+					0);
+			fail("Broken input must abort the import");
+		} catch (IOException exc) {
+			// expected
+		}
+		HandleImport handleImport = newImport(dir, context);
+		long checkpoint = handleImport.getCheckpoint();
+		assertTrue(checkpoint < malformed);
+		handleImport.run(new ByteArrayInputStream(input, (int) checkpoint,
+				input.length - (int) checkpoint), checkpoint);
+		assertEquals(HandleImport.Status.COMPLETED, handleImport.getStatus());
+		assertEquals(1, handleImport.getFailed());
+		assertEquals(1, countLines(new File(dir, "test.failed")));
+		assertImported(context.getHSAdapter());
+	}
+
+}
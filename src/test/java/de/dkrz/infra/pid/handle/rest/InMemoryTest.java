@@ -6,6 +6,7 @@ import org.junit.Before;
 
 import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
 import de.dkrz.infra.pid.handle.rest.core.HandleAuthorizationInfo;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
 
 public class InMemoryTest extends CommonTest {
 
@@ -13,7 +14,7 @@ public class InMemoryTest extends CommonTest {
 	@Override
 	public void setUp() throws Exception {
 		super.setUp();
-		HSAdapter hsAdapter = new InMemoryStore();
+		HSAdapter hsAdapter = new InMemoryHSAdapter();
 		ApplicationContext context = new ApplicationContext(hsAdapter,
 				new HandleAuthorizationInfo("", 300, null, null));
 	}
@@ -0,0 +1,197 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.ForwardingHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.HandleAuthorizationInfo;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.RegistrationJournal;
+
+public class JournalTest {
+
+	private static final int SEGMENT_SIZE = 4096;
+
+	private File directory;
+	private InMemoryHSAdapter store;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("handle-rest-journal", "");
+		directory.delete();
+		store = new InMemoryHSAdapter();
+	}
+
+	@After
+	public void tearDown() {
+		ApplicationContext.shutdownInstance();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private byte[] record(String handle, String url) throws Exception {
+		return RegistrationJournal.encode(handle,
+				new HandleValue[] { store.createHandleValue(1, "URL", url) });
+	}
+
+	@Test
+	public void testResumeAfterRestart() throws Exception {
+		RegistrationJournal journal = new RegistrationJournal(directory,
+				SEGMENT_SIZE);
+		long first = 0;
+		// enough records to span several segments
+		for (int i = 0; i < 100; i++) {
+			long offset = journal.append(record("10876/test-journal-" + i,
+					"http://www.dkrz.de/" + i));
+			if (i == 0)
+				first = offset;
+		}
+		journal.sync(journal.getWriteOffset());
+		List<RegistrationJournal.Entry> entries = journal.read(1, 0);
+		assertEquals("10876/test-journal-0", entries.get(0).getHandle());
+		assertEquals("http://www.dkrz.de/0", entries.get(0).getValues()[0]
+				.getDataAsString());
+		journal.acknowledge(first);
+		journal.close();
+		// reopen: reading resumes behind the acknowledged record
+		journal = new RegistrationJournal(directory, SEGMENT_SIZE);
+		assertEquals(first, journal.getAcknowledgedOffset());
+		entries = journal.read(1000, 0);
+		assertEquals(99, entries.size());
+		assertEquals("10876/test-journal-1", entries.get(0).getHandle());
+		assertEquals("10876/test-journal-99", entries.get(98).getHandle());
+		journal.close();
+	}
+
+	@Test
+	public void testDirectoryIsLocked() throws Exception {
+		RegistrationJournal journal = new RegistrationJournal(directory,
+				SEGMENT_SIZE);
+		try {
+			new RegistrationJournal(directory, SEGMENT_SIZE);
+			fail("A second journal on the same directory must be rejected");
+		} catch (IOException exc) {
+			// expected
+		}
+		journal.close();
+		try {
+			journal.append(record("10876/test-closed", "http://www.dkrz.de"));
+			fail("Appending to a closed journal must fail");
+		} catch (IOException exc) {
+			// expected
+		}
+		new RegistrationJournal(directory, SEGMENT_SIZE).close();
+	}
+
+	@Test
+	public void testDrainToHandleSystem() throws Exception {
+		ApplicationContext context = new ApplicationContext(store,
+				new HandleAuthorizationInfo("", 300, null, null));
+		context.openJournal(directory, SEGMENT_SIZE);
+		RegistrationJournal journal = context.getJournal();
+		long trackingId = 0;
+		for (int i = 0; i < 20; i++) {
+			trackingId = journal.append(record("10876/test-drain-" + i,
+					"http://www.dkrz.de/" + i));
+		}
+		journal.sync(trackingId);
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((journal.getAcknowledgedOffset() < trackingId)
+				&& (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(50);
+		}
+		assertTrue(journal.getAcknowledgedOffset() >= trackingId);
+		assertEquals(20, context.getJournalDrainer().getRegistered());
+		String url = null;
+		boolean administered = false;
+		for (HandleValue hv : store.resolveHandle("10876/test-drain-7", null,
+				null)) {
+			if (hv.getTypeAsString().equals("URL"))
+				url = hv.getDataAsString();
+			else if (hv.getTypeAsString().equals("HS_ADMIN"))
+				administered = true;
+		}
+		assertEquals("http://www.dkrz.de/7", url);
+		assertTrue(administered);
+	}
+
+	@Test
+	public void testPoisonRecordIsDeadLettered() throws Exception {
+		// the server fails on one record with an error that is normally
+		// transient
+		ForwardingHSAdapter poisoned = new ForwardingHSAdapter(store) {
+			@Override
+			public void createHandle(String handle, HandleValue[] values)
+					throws HandleException {
+				if (handle.equals("10876/test-poison"))
+					throw new HandleException(HandleException.INTERNAL_ERROR,
+							"Cannot store record");
+				super.createHandle(handle, values);
+			}
+		};
+		ApplicationContext context = new ApplicationContext(poisoned,
+				new HandleAuthorizationInfo("", 300, null, null));
+		context.openJournal(directory, SEGMENT_SIZE);
+		RegistrationJournal journal = context.getJournal();
+		journal.append(record("10876/test-poison", "http://www.dkrz.de"));
+		long trackingId = journal.append(record("10876/test-after-poison",
+				"http://www.dkrz.de"));
+		journal.sync(trackingId);
+		long deadline = System.currentTimeMillis() + 20000;
+		while ((journal.getAcknowledgedOffset() < trackingId)
+				&& (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(50);
+		}
+		assertTrue(journal.getAcknowledgedOffset() >= trackingId);
+		assertEquals(1, context.getJournalDrainer().getFailed());
+		assertEquals(1, context.getJournalDrainer().getRegistered());
+		assertTrue(new File(directory, "failed").length() > 0);
+	}
+
+	@Test
+	public void testGeneratedNameNeverOverwrites() throws Exception {
+		store.createHandle("10876/test-taken", new HandleValue[] { store
+				.createHandleValue(1, "URL", "http://www.google.de") });
+		ApplicationContext context = new ApplicationContext(store,
+				new HandleAuthorizationInfo("", 300, null, null));
+		context.openJournal(directory, SEGMENT_SIZE);
+		RegistrationJournal journal = context.getJournal();
+		HandleValue[] values = new HandleValue[] { store.createHandleValue(1,
+				"URL", "http://www.dkrz.de") };
+		journal.append(RegistrationJournal.encode("10876/test-taken", values,
+				true));
+		// delivered twice, e.g. after a restart before the acknowledgement
+		journal.append(RegistrationJournal.encode("10876/test-generated",
+				values, true));
+		long trackingId = journal.append(RegistrationJournal.encode(
+				"10876/test-generated", values, true));
+		journal.sync(trackingId);
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((journal.getAcknowledgedOffset() < trackingId)
+				&& (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(50);
+		}
+		assertTrue(journal.getAcknowledgedOffset() >= trackingId);
+		assertEquals(1, context.getJournalDrainer().getFailed());
+		assertEquals(2, context.getJournalDrainer().getRegistered());
+		assertEquals("http://www.google.de",
+				store.resolveHandle("10876/test-taken", new String[] { "URL" },
+						null)[0].getDataAsString());
+	}
+
+}
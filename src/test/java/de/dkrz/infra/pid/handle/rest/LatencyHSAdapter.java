@@ -0,0 +1,41 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+import de.dkrz.infra.pid.handle.rest.core.ForwardingHSAdapter;
+
+/**
+ * Test decorator that delays every resolution by a fixed amount of time to
+ * mimic a remote Handle server, and counts the resolutions passed on to the
+ * wrapped adapter.
+ */
+public class LatencyHSAdapter extends ForwardingHSAdapter {
+
+	private final long latencyMillis;
+	private final AtomicInteger resolveCalls = new AtomicInteger();
+
+	public LatencyHSAdapter(HSAdapter delegate, long latencyMillis) {
+		super(delegate);
+		this.latencyMillis = latencyMillis;
+	}
+
+	@Override
+	public HandleValue[] resolveHandle(String handle, String[] types,
+			int[] indexes) throws HandleException {
+		resolveCalls.incrementAndGet();
+		try {
+			Thread.sleep(latencyMillis);
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		return super.resolveHandle(handle, types, indexes);
+	}
+
+	public int getResolveCalls() {
+		return resolveCalls.get();
+	}
+
+}
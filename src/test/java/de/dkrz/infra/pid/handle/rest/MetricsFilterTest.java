@@ -0,0 +1,66 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.test.framework.JerseyTest;
+import com.sun.jersey.test.framework.WebAppDescriptor;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleAuthorizationInfo;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.MetricsRegistry;
+import de.dkrz.infra.pid.handle.rest.resources.MetricsFilterFactory;
+
+public class MetricsFilterTest extends JerseyTest {
+
+	private static final String FILTER = MetricsFilterFactory.class.getName();
+
+	public MetricsFilterTest() {
+		super(new WebAppDescriptor.Builder(
+				"de.dkrz.infra.pid.handle.rest.resources")
+				.initParam("com.sun.jersey.spi.container.ResourceFilters",
+						FILTER)
+				.initParam(
+						"com.sun.jersey.spi.container.ContainerRequestFilters",
+						FILTER)
+				.initParam(
+						"com.sun.jersey.spi.container.ContainerResponseFilters",
+						FILTER).build());
+	}
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		// the filters bind to the metrics of the context when they are
+		// created, i.e. when the container starts
+		new ApplicationContext(new InMemoryHSAdapter(),
+				new HandleAuthorizationInfo("", 300, null, null));
+		super.setUp();
+	}
+
+	private static long responses(String endpoint, String statusClass) {
+		MetricsRegistry metrics = ApplicationContext.getInstance().getMetrics();
+		return metrics.counter(MetricsFilterFactory.RESPONSE_METRIC,
+				"HTTP responses by status class",
+				"endpoint=\"" + endpoint + "\",class=\"" + statusClass + "\"")
+				.get();
+	}
+
+	@Test
+	public void testErrorResponsesAreCounted() {
+		// the resource method throws for a missing Handle
+		ClientResponse resp = resource().path("/handles/10876/test-missing")
+				.get(ClientResponse.class);
+		assertEquals(404, resp.getStatus());
+		assertEquals(1, responses("HandleRootResource.getHandle", "4xx"));
+		// no resource matches at all
+		resp = resource().path("/no-such-resource").get(ClientResponse.class);
+		assertEquals(404, resp.getStatus());
+		assertEquals(1, responses("unmatched", "4xx"));
+	}
+
+}
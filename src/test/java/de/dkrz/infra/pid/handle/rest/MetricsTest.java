@@ -0,0 +1,57 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import net.handle.hdllib.HandleValue;
+
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.InstrumentedHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.LatencyHistogram;
+import de.dkrz.infra.pid.handle.rest.core.MetricsRegistry;
+
+public class MetricsTest {
+
+	@Test
+	public void testQuantiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		assertEquals(100, histogram.getCount());
+		long median = histogram.getQuantileMicros(0.5);
+		assertTrue(median >= 50000 && median <= 50000 * 1.25);
+		long p99 = histogram.getQuantileMicros(0.99);
+		assertTrue(p99 >= 99000 && p99 <= 99000 * 1.25);
+	}
+
+	@Test
+	public void testPrometheusOutput() throws Exception {
+		MetricsRegistry metrics = new MetricsRegistry();
+		InMemoryHSAdapter store = new InMemoryHSAdapter();
+		InstrumentedHSAdapter adapter = new InstrumentedHSAdapter(store,
+				metrics);
+		adapter.createHandle("10876/test-metrics",
+				new HandleValue[] { store.createHandleValue(1, "URL",
+						"http://www.dkrz.de") });
+		try {
+			adapter.resolveHandle("10876/test-missing", null, null);
+		} catch (Exception exc) {
+			// expected
+		}
+		StringWriter writer = new StringWriter();
+		metrics.writePrometheus(writer);
+		String text = writer.toString();
+		assertTrue(text.contains("# TYPE handle_rest_backend_seconds summary"));
+		assertTrue(text
+				.contains("handle_rest_backend_seconds_count{method=\"createHandle\"} 1"));
+		assertTrue(text
+				.contains("handle_rest_backend_errors_total{method=\"resolveHandle\"} 1"));
+	}
+
+}
@@ -0,0 +1,119 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.HandleNameIndex;
+
+public class NameIndexTest {
+
+	private File logFile;
+
+	@Before
+	public void setUp() throws Exception {
+		logFile = File.createTempFile("handle-rest-index", ".log");
+		logFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		logFile.delete();
+	}
+
+	@Test
+	public void testPagination() throws Exception {
+		HandleNameIndex index = new HandleNameIndex();
+		index.add("10876/c");
+		index.add("10876/a");
+		index.add("10876/b");
+		index.add("11111/a");
+		index.add("1087/a");
+		List<String> page = index.list("10876", null, 2);
+		assertEquals(Arrays.asList("10876/a", "10876/b"), page);
+		page = index.list("10876", page.get(1), 2);
+		assertEquals(Arrays.asList("10876/c"), page);
+		assertEquals(5, index.list(null, null, 10).size());
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		HandleNameIndex index = new HandleNameIndex(logFile);
+		index.add("10876/a");
+		index.add("10876/b");
+		index.remove("10876/a");
+		index.close();
+		index = new HandleNameIndex(logFile);
+		assertEquals(1, index.size());
+		assertTrue(index.contains("10876/b"));
+		index.close();
+	}
+
+	@Test
+	public void testConcurrentChangesReplayInOrder() throws Exception {
+		final HandleNameIndex index = new HandleNameIndex(logFile);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for (int t = 0; t < 8; t++) {
+			final boolean adding = (t % 2 == 0);
+			results.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					for (int i = 0; i < 5000; i++) {
+						String name = "10876/race-" + (i % 16);
+						if (adding)
+							index.add(name);
+						else
+							index.remove(name);
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> result : results)
+			result.get();
+		executor.shutdown();
+		List<String> expected = index.list(null, null, 100);
+		index.close();
+		HandleNameIndex replayed = new HandleNameIndex(logFile);
+		assertEquals(expected, replayed.list(null, null, 100));
+		replayed.close();
+	}
+
+	@Test
+	public void testFailedCompactionKeepsLog() throws Exception {
+		HandleNameIndex index = new HandleNameIndex(logFile);
+		index.add("10876/a");
+		// the compacted file cannot be created
+		File tmpFile = new File(logFile.getPath() + ".tmp");
+		tmpFile.mkdir();
+		try {
+			index.compact();
+			fail("Compaction must fail");
+		} catch (IOException exc) {
+			// expected
+		} finally {
+			tmpFile.delete();
+		}
+		index.add("10876/b");
+		index.close();
+		index = new HandleNameIndex(logFile);
+		assertEquals(Arrays.asList("10876/a", "10876/b"),
+				index.list(null, null, 10));
+		index.close();
+	}
+
+}
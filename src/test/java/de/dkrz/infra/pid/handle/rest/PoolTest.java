@@ -0,0 +1,102 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.HSAdapterPool;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.PooledHSAdapter;
+
+public class PoolTest {
+
+	private static final int NUM_THREADS = 8;
+
+	private InMemoryHSAdapter store;
+	private HSAdapterPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new InMemoryHSAdapter();
+		store.createHandle("10876/test-pool",
+				new HandleValue[] { store.createHandleValue(1, "URL",
+						"http://www.dkrz.de") });
+		pool = new HSAdapterPool(new HSAdapterPool.Factory() {
+			public HSAdapter create() throws HandleException {
+				return new LatencyHSAdapter(store, 200);
+			}
+		}, 1, 4, 300, 30, "10876/test-pool", 1);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void testPoolGrowsUpToMaxSize() throws Exception {
+		final PooledHSAdapter adapter = new PooledHSAdapter(pool);
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<HandleValue[]>> results = new ArrayList<Future<HandleValue[]>>();
+		for (int i = 0; i < NUM_THREADS; i++) {
+			results.add(executor.submit(new Callable<HandleValue[]>() {
+				public HandleValue[] call() throws Exception {
+					start.await();
+					return adapter.resolveHandle("10876/test-pool", null,
+							new int[0]);
+				}
+			}));
+		}
+		start.countDown();
+		executor.shutdown();
+		for (Future<HandleValue[]> result : results) {
+			assertEquals("http://www.dkrz.de", result.get()[0]
+					.getDataAsString());
+		}
+		assertEquals(4, pool.getSize());
+		assertEquals(4, pool.getIdleCount());
+	}
+
+	@Test
+	public void testBorrowReusesIdleInstance() throws Exception {
+		HSAdapter first = pool.borrow();
+		pool.release(first);
+		HSAdapter second = pool.borrow();
+		pool.release(second);
+		assertTrue(first == second);
+		assertEquals(1, pool.getCreatedCount());
+	}
+
+	@Test
+	public void testValuesAreCreatedWithoutBorrowing() throws Exception {
+		List<HSAdapter> borrowed = new ArrayList<HSAdapter>();
+		for (int i = 0; i < 4; i++)
+			borrowed.add(pool.borrow());
+		// the pool is exhausted, but creating values must not wait for it
+		PooledHSAdapter adapter = new PooledHSAdapter(pool);
+		HandleValue hv = adapter.createHandleValue(1, "URL",
+				"http://www.dkrz.de");
+		assertEquals("http://www.dkrz.de", hv.getDataAsString());
+		assertEquals("HS_ADMIN", adapter.createAdminValue("0.NA/10876", 300,
+				100).getTypeAsString());
+		for (HSAdapter instance : borrowed)
+			pool.release(instance);
+	}
+
+}
@@ -0,0 +1,75 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+
+import javax.ws.rs.WebApplicationException;
+
+import net.handle.api.HSAdapter;
+import net.handle.hdllib.HandleValue;
+
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.ApplicationContext;
+import de.dkrz.infra.pid.handle.rest.core.HandleAuthorizationInfo;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.LatencyHistogram;
+import de.dkrz.infra.pid.handle.rest.core.RedirectCache;
+import de.dkrz.infra.pid.handle.rest.resources.RedirectResource;
+
+public class RedirectTest {
+
+	@Test
+	public void testWriteInvalidatesTarget() throws Exception {
+		ApplicationContext context = new ApplicationContext(
+				new InMemoryHSAdapter(), new HandleAuthorizationInfo("0.NA/10876",
+						300, null, null));
+		HSAdapter hsAdapter = context.getHSAdapter();
+		HandleValue hv = hsAdapter.createHandleValue(1, "URL",
+				"http://www.dkrz.de");
+		hsAdapter.createHandle("10876/test-redirect", new HandleValue[] { hv });
+		RedirectCache cache = context.getRedirectCache();
+		cache.put("10876/test-redirect", new URI("http://www.dkrz.de"), hv,
+				cache.getStamp("10876/test-redirect"));
+		assertEquals(new URI("http://www.dkrz.de"),
+				cache.get("10876/test-redirect"));
+		hsAdapter.updateHandleValues("10876/test-redirect",
+				new HandleValue[] { hsAdapter.createHandleValue(1, "URL",
+						"http://www.google.de") });
+		assertNull(cache.get("10876/test-redirect"));
+	}
+
+	@Test
+	public void testRacingWriteIsNotCached() throws Exception {
+		RedirectCache cache = new RedirectCache();
+		HandleValue hv = new InMemoryHSAdapter().createHandleValue(1, "URL",
+				"http://www.dkrz.de");
+		// resolution started before the write, so its result is stale
+		long stamp = cache.getStamp("10876/test-redirect");
+		cache.invalidated("10876/test-redirect");
+		cache.put("10876/test-redirect", new URI("http://www.dkrz.de"), hv,
+				stamp);
+		assertNull(cache.get("10876/test-redirect"));
+	}
+
+	@Test
+	public void testNotFoundIsTimedAsMiss() throws Exception {
+		ApplicationContext context = new ApplicationContext(
+				new InMemoryHSAdapter(), new HandleAuthorizationInfo("0.NA/10876",
+						300, null, null));
+		LatencyHistogram missLatency = context.getMetrics().histogram(
+				RedirectResource.LATENCY_METRIC, "Latency of redirects",
+				"cache=\"miss\"");
+		try {
+			new RedirectResource().redirect("10876", "test-missing");
+			fail("Redirected to a missing Handle");
+		} catch (WebApplicationException exc) {
+			assertEquals(404, exc.getResponse().getStatus());
+		}
+		assertEquals(1, missLatency.getCount());
+	}
+
+}
@@ -0,0 +1,101 @@
+package de.dkrz.infra.pid.handle.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.handle.hdllib.HandleValue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.dkrz.infra.pid.handle.rest.core.HandleBackendBusyException;
+import de.dkrz.infra.pid.handle.rest.core.HandleTimeoutException;
+import de.dkrz.infra.pid.handle.rest.core.HandleWriteResult;
+import de.dkrz.infra.pid.handle.rest.core.InMemoryHSAdapter;
+import de.dkrz.infra.pid.handle.rest.core.TimeLimitedHSAdapter;
+
+public class TimeoutTest {
+
+	private InMemoryHSAdapter store;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new InMemoryHSAdapter();
+		store.createHandle("10876/test-slow",
+				new HandleValue[] { store.createHandleValue(1, "URL",
+						"http://www.dkrz.de") });
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testFastCallPassesThrough() throws Exception {
+		TimeLimitedHSAdapter adapter = new TimeLimitedHSAdapter(
+				new LatencyHSAdapter(store, 10), executor, 1000);
+		HandleValue[] values = adapter.resolveHandle("10876/test-slow", null,
+				new int[0]);
+		assertEquals("http://www.dkrz.de", values[0].getDataAsString());
+		assertEquals(0, adapter.getTimeouts());
+	}
+
+	@Test
+	public void testSlowCallMapsTo504() throws Exception {
+		TimeLimitedHSAdapter adapter = new TimeLimitedHSAdapter(
+				new LatencyHSAdapter(store, 2000), executor, 100);
+		long start = System.currentTimeMillis();
+		try {
+			adapter.resolveHandle("10876/test-slow", null, new int[0]);
+			fail("Expected timeout");
+		} catch (HandleTimeoutException exc) {
+			assertEquals(504, HandleWriteResult.statusCode(exc));
+		}
+		assertEquals(true, System.currentTimeMillis() - start < 1000);
+		assertEquals(1, adapter.getTimeouts());
+	}
+
+	@Test
+	public void testSaturatedBackendMapsTo503() throws Exception {
+		final LatencyHSAdapter slow = new LatencyHSAdapter(store, 1000);
+		ExecutorService backend = TimeLimitedHSAdapter.newExecutor(1);
+		try {
+			final TimeLimitedHSAdapter adapter = new TimeLimitedHSAdapter(slow,
+					backend, 5000);
+			// occupies the only backend thread
+			Future<HandleValue[]> first = executor
+					.submit(new Callable<HandleValue[]>() {
+						public HandleValue[] call() throws Exception {
+							return adapter.resolveHandle("10876/test-slow",
+									null, new int[0]);
+						}
+					});
+			while (slow.getResolveCalls() == 0)
+				Thread.sleep(10);
+			long start = System.currentTimeMillis();
+			try {
+				adapter.resolveHandle("10876/test-slow", null, new int[0]);
+				fail("Expected rejection");
+			} catch (HandleBackendBusyException exc) {
+				assertEquals(503, HandleWriteResult.statusCode(exc));
+			}
+			// rejected right away instead of queued until the timeout
+			assertEquals(true, System.currentTimeMillis() - start < 500);
+			assertEquals(0, adapter.getTimeouts());
+			assertEquals("http://www.dkrz.de", first.get()[0]
+					.getDataAsString());
+		} finally {
+			backend.shutdownNow();
+		}
+	}
+
+}